@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown;
+
+import org.parboiled.buffers.InputBuffer;
+import org.parboiled.support.IndexRange;
+import org.parboiled.support.Position;
+
+import java.util.Arrays;
+
+import static org.parboiled.common.Preconditions.checkArgument;
+
+/**
+ * Base class of the InputBuffers that present their input through {@link #charAt(int)} only, with the line
+ * and position logic of parboiled's DefaultInputBuffer on top.
+ */
+abstract class AbstractInputBuffer implements InputBuffer {
+    private int[] newlines;
+    private DelimiterIndex delimiterIndex;
+
+    /**
+     * @return the number of chars in this buffer
+     */
+    abstract int length();
+
+    public boolean test(int index, char[] characters) {
+        if (index < 0 || index + characters.length > length()) return false;
+        for (int i = 0; i < characters.length; i++) {
+            if (charAt(index + i) != characters[i]) return false;
+        }
+        return true;
+    }
+
+    public String extract(int start, int end) {
+        if (start < 0) start = 0;
+        if (end > length()) end = length();
+        if (end <= start) return "";
+        StringBuilder sb = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) sb.append(charAt(i));
+        return sb.toString();
+    }
+
+    public String extract(IndexRange range) {
+        return extract(range.start, range.end);
+    }
+
+    public Position getPosition(int index) {
+        buildNewlines();
+        int line = Arrays.binarySearch(newlines, index);
+        if (line < 0) line = -(line + 1);
+        int column = index - (line > 0 ? newlines[line - 1] : -1);
+        return new Position(line + 1, column);
+    }
+
+    public int getOriginalIndex(int index) {
+        return index;
+    }
+
+    public String extractLine(int lineNumber) {
+        buildNewlines();
+        checkArgument(0 < lineNumber && lineNumber <= newlines.length + 1);
+        int start = lineNumber > 1 ? newlines[lineNumber - 2] + 1 : 0;
+        int end = lineNumber <= newlines.length ? newlines[lineNumber - 1] : length();
+        if (charAt(end - 1) == '\r') end--;
+        return extract(start, end);
+    }
+
+    DelimiterIndex getDelimiterIndex() {
+        if (delimiterIndex == null) delimiterIndex = new DelimiterIndex(this, length());
+        return delimiterIndex;
+    }
+
+    public int getLineCount() {
+        buildNewlines();
+        return newlines.length + 1;
+    }
+
+    private void buildNewlines() {
+        if (newlines != null) return;
+        int count = 0;
+        for (int i = 0; i < length(); i++) {
+            if (charAt(i) == '\n') count++;
+        }
+        int[] lines = new int[count];
+        count = 0;
+        for (int i = 0; i < length(); i++) {
+            if (charAt(i) == '\n') lines[count++] = i;
+        }
+        newlines = lines;
+    }
+}
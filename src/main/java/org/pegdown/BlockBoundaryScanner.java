@@ -0,0 +1,397 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.pegdown.Extensions.*;
+
+/**
+ * Finds the positions at which a (prepared) markdown source can be cut into chunks that parse to exactly the same
+ * top-level blocks as the complete source, i.e. the positions at which the {@link Parser#Root()} rule is guaranteed
+ * to start a new top-level block that does not depend on anything before it.
+ *
+ * The scanner is deliberately conservative: it only accepts the start of a line that follows a blank line and
+ * begins with an ASCII letter (which can neither continue a list, block quote or verbatim block nor start an
+ * indented construct) and rejects all such positions that might lie within a fenced code block, an HTML block,
+ * an HTML comment or an HTML tag with (multi-line) attribute values, or that might continue a definition list.
+ * Wherever the scanner cannot be sure how the parser will interpret a fence-like line it stops looking for further
+ * split points altogether. Sources with CR line endings are never split.
+ */
+public class BlockBoundaryScanner {
+    private final char[] src;
+    private final int length;
+    private final int options;
+
+    private final Map<String, Integer> lastCloseTag = new HashMap<String, Integer>();
+    private final Map<String, int[]> openTagDepth = new HashMap<String, int[]>();
+    private int openTags;  // sum of all openTagDepth values
+    private int reach;     // end of the furthest reaching HTML tag or comment seen so far
+    private int tagEnd;    // end of the furthest reaching HTML tag seen so far
+    private int horizon = Integer.MAX_VALUE; // position of the first unclosed quote or HTML block tag
+
+    private int[] points = new int[16];
+    private int pointCount;
+
+    private BlockBoundaryScanner(char[] src, int length, int options) {
+        this.src = src;
+        this.length = length;
+        this.options = options;
+    }
+
+    /**
+     * Finds all safe split points of the given source, which must already have been prepared with
+     * {@link PegDownProcessor#prepareSource(char[])}.
+     *
+     * @param source the prepared markdown source
+     * @param options the {@link Extensions} the source is going to be parsed with
+     * @return the safe split points in ascending order (never including 0)
+     */
+    public static int[] findSplitPoints(char[] source, int options) {
+        return scan(source, options).getSplitPoints();
+    }
+
+    /**
+     * Finds the last split point of the given incomplete source (i.e. the beginning of a document whose rest is not
+     * known yet) which is guaranteed to also be a safe split point of the complete document, whatever the rest is.
+     *
+     * @param source the beginning of a markdown document
+     * @param length the number of chars of the source array that are known
+     * @param options the {@link Extensions} the source is going to be parsed with
+     * @return the last safe split point or 0 if there is none
+     */
+    public static int findLastStableSplitPoint(char[] source, int length, int options) {
+        BlockBoundaryScanner scanner = scan(source, length, options);
+        // the last split point is rejected since the lookaheads at it might need to see beyond the known source
+        int result = 0;
+        for (int i = 0; i < scanner.pointCount - 1 && scanner.points[i] <= scanner.horizon; i++) {
+            result = scanner.points[i];
+        }
+        return result;
+    }
+
+    // package-private for the incremental parsing, which also needs the horizon
+    static BlockBoundaryScanner scan(char[] source, int options) {
+        return scan(source, source.length, options);
+    }
+
+    private static BlockBoundaryScanner scan(char[] source, int length, int options) {
+        BlockBoundaryScanner scanner = new BlockBoundaryScanner(source, length, options);
+        for (int i = 0; i < length; i++) {
+            if (source[i] == '\r') {
+                scanner.horizon = 0;
+                return scanner;
+            }
+        }
+        scanner.scan();
+        return scanner;
+    }
+
+    int[] getSplitPoints() {
+        return Arrays.copyOf(points, pointCount);
+    }
+
+    // the parse of the text before a split point at or below this index doesn't depend on any text after the split
+    // point (the split point only guarantees that for the text after it as it is), i.e. is the same for every text
+    // that could follow
+    int getHorizon() {
+        return horizon;
+    }
+
+    /**
+     * Selects those of the given split points which cut the source into chunks of at least the given size.
+     *
+     * @param splitPoints the safe split points as returned by {@link #findSplitPoints(char[], int)}
+     * @param minChunkSize the minimum number of characters per chunk
+     * @return the selected split points in ascending order
+     */
+    public static int[] selectSplitPoints(int[] splitPoints, int minChunkSize) {
+        int[] selected = new int[splitPoints.length];
+        int count = 0;
+        int chunkStart = 0;
+        for (int point : splitPoints) {
+            if (point - chunkStart >= minChunkSize) {
+                selected[count++] = point;
+                chunkStart = point;
+            }
+        }
+        return Arrays.copyOf(selected, count);
+    }
+
+    private void scan() {
+        collectCloseTags();
+        boolean fenced = (options & FENCED_CODE_BLOCKS) != 0;
+        boolean definitions = (options & DEFINITIONS) != 0;
+        int fenceLength = 0;
+        boolean fenceHasBody = false;
+        boolean prevBlank = true;
+        int ix = 0;
+        while (ix < length) {
+            int lineEnd = lineEnd(ix);
+            boolean blank = isBlank(ix, lineEnd);
+            int fence = fenceRun(ix);
+
+            if (fenceLength > 0) {
+                if (fence == fenceLength) {
+                    // the parser only closes after at least one non-blank body line, otherwise we'd be guessing
+                    if (!fenceHasBody) break;
+                    fenceLength = 0;
+                } else if (!blank) {
+                    fenceHasBody = true;
+                }
+            } else if (fence >= 3) {
+                // the fenced code lookahead of Parser.NormalEndline() is active even without the extension and can
+                // reach across blank lines
+                if (!prevBlank) break;
+                if (fenced) {
+                    // we only follow fences the parser definitely opens, everything else is too ambiguous to split on
+                    if (openTags > 0 || ix < reach || mightNotOpenFence(ix, lineEnd)) break;
+                    fenceLength = fence;
+                    fenceHasBody = false;
+                }
+            } else if (prevBlank && ix > 0 && openTags == 0 && ix >= reach && isLetter(src[ix]) &&
+                    !(definitions && startsDefinitionList(ix))) {
+                addPoint(ix);
+            }
+
+            // HTML is tracked everywhere, even in fenced code, which only makes us more conservative
+            scanHtml(ix, lineEnd);
+
+            prevBlank = blank;
+            ix = lineEnd + 1;
+        }
+    }
+
+    private void addPoint(int point) {
+        if (pointCount == points.length) points = Arrays.copyOf(points, points.length * 2);
+        points[pointCount++] = point;
+    }
+
+    // the parser might turn the fence-like line into something else than a fenced code block
+    private boolean mightNotOpenFence(int ix, int lineEnd) {
+        if (lineEnd + 1 < length && (src[lineEnd + 1] == '=' || src[lineEnd + 1] == '-')) return true; // setext
+        if ((options & TABLES) != 0) {
+            for (int i = ix; i < lineEnd; i++) {
+                if (src[i] == '|') return true;
+            }
+        }
+        return (options & DEFINITIONS) != 0 && startsDefinitionList(ix);
+    }
+
+    // mirrors the lookahead of the DefinitionList rule: non-blank lines, optional blank lines, a definition bullet
+    private boolean startsDefinitionList(int ix) {
+        while (ix < length && !isBlank(ix, lineEnd(ix)) && !isDefListBullet(ix)) ix = lineEnd(ix) + 1;
+        while (ix < length && isBlank(ix, lineEnd(ix))) ix = lineEnd(ix) + 1;
+        return ix < length && isDefListBullet(ix);
+    }
+
+    private boolean isDefListBullet(int ix) {
+        int i = ix;
+        while (i < length && i - ix < 3 && src[i] == ' ') i++;
+        return i + 1 < length && (src[i] == ':' || src[i] == '~') && (src[i + 1] == ' ' || src[i + 1] == '\t');
+    }
+
+    private int fenceRun(int ix) {
+        if (ix >= length || (src[ix] != '`' && src[ix] != '~')) return 0;
+        int i = ix;
+        while (i < length && src[i] == src[ix]) i++;
+        return i - ix;
+    }
+
+    //************* HTML ****************
+
+    // the parser can only build an HTML block for a tag that is closed somewhere after its opening tag,
+    // so we record the position of the last closing tag per name
+    private void collectCloseTags() {
+        for (int ix = 0; ix < length; ix++) {
+            if (src[ix] != '<') continue;
+            int i = spn1(ix + 1);
+            if (i < length && src[i] == '/') {
+                int nameEnd = alphanumerics(i + 1);
+                if (nameEnd > i + 1) lastCloseTag.put(new String(src, i + 1, nameEnd - i - 1), ix);
+            }
+        }
+    }
+
+    private void scanHtml(int ix, int lineEnd) {
+        for (int i = ix; i < lineEnd; i++) {
+            if (src[i] != '<') continue;
+            if (startsWith(i, "<!--")) {
+                int end = indexOf("-->", i + 4);
+                reach = Math.max(reach, end < 0 ? length : end + 3);
+            } else {
+                scanTag(i);
+            }
+        }
+    }
+
+    private void scanTag(int ix) {
+        int end = htmlTag(ix);
+        if (end < 0) return;
+        reach = Math.max(reach, end);
+        boolean withinTag = ix < tagEnd;
+        tagEnd = Math.max(tagEnd, end);
+
+        int nameStart = spn1(ix + 1);
+        if (src[nameStart] == '/') {
+            // only count the plain form `</name>` of a closing tag outside of any other tag (e.g. in an attribute
+            // value), which the parser definitely accepts as well
+            int nameEnd = alphanumerics(ix + 2);
+            if (!withinTag && nameStart == ix + 1 && src[nameEnd] == '>') {
+                int[] depth = openTagDepth.get(new String(src, ix + 2, nameEnd - ix - 2));
+                if (depth != null && depth[0] > 0) {
+                    depth[0]--;
+                    openTags--;
+                }
+            }
+        } else {
+            // an HTML block can only start at the beginning of a line but nests tags of its own name anywhere
+            String name = new String(src, nameStart, alphanumerics(nameStart) - nameStart).toLowerCase();
+            Integer lastClose = lastCloseTag.get(name);
+            int[] depth = openTagDepth.get(name);
+            if ((ix == 0 || src[ix - 1] == '\n' || depth != null && depth[0] > 0) && Parser.HTML_TAGS.contains(name)) {
+                if (lastClose != null && lastClose > ix) {
+                    if (depth == null) openTagDepth.put(name, depth = new int[1]);
+                    depth[0]++;
+                    openTags++;
+                } else {
+                    // with a closing tag somewhere later on the parser might build a different block here
+                    horizon = Math.min(horizon, ix);
+                }
+            }
+        }
+    }
+
+    // mirrors Parser.HtmlTag(), returns the end of the match or -1
+    private int htmlTag(int ix) {
+        int i = spn1(ix + 1);
+        if (i < length && src[i] == '/') i++;
+        int nameEnd = alphanumerics(i);
+        if (nameEnd == i) return -1;
+        i = spn1(nameEnd);
+        while (true) { // attributes
+            int j = i;
+            while (j < length && (isAlphanumeric(src[j]) || src[j] == '-' || src[j] == '_')) j++;
+            if (j == i) break;
+            j = spn1(j);
+            if (j < length && src[j] == '=') {
+                int value = attributeValue(spn1(j + 1));
+                if (value >= 0) j = value;
+            }
+            i = spn1(j);
+        }
+        if (i < length && src[i] == '/') i++;
+        i = spn1(i);
+        return i < length && src[i] == '>' ? i + 1 : -1;
+    }
+
+    private int attributeValue(int ix) {
+        if (ix >= length) return -1;
+        char c = src[ix];
+        if (c == '"' || c == '\'') {
+            int close = indexOf(c, ix + 1);
+            if (close >= 0) {
+                // even if the tag fails to match later on, a chunk without the closing quote would fall back to an
+                // unquoted value and might match a tag that the complete source doesn't have
+                reach = Math.max(reach, close + 1);
+                return close + 1;
+            }
+            // with a closing quote somewhere later on the tag might match differently
+            horizon = Math.min(horizon, ix);
+        }
+        int i = ix;
+        while (i < length && src[i] != '>' && src[i] != ' ' && src[i] != '\t' && src[i] != '\n') i++;
+        return i > ix ? i : -1;
+    }
+
+    //************* CHARACTER HELPERS ****************
+
+    private int lineEnd(int ix) {
+        while (ix < length && src[ix] != '\n') ix++;
+        return ix;
+    }
+
+    private boolean isBlank(int ix, int lineEnd) {
+        for (int i = ix; i < lineEnd; i++) {
+            if (src[i] != ' ' && src[i] != '\t') return false;
+        }
+        return true;
+    }
+
+    private int spn1(int ix) {
+        while (ix < length && (src[ix] == ' ' || src[ix] == '\t')) ix++;
+        if (ix < length && src[ix] == '\n') {
+            ix++;
+            while (ix < length && (src[ix] == ' ' || src[ix] == '\t')) ix++;
+        }
+        return ix;
+    }
+
+    private int alphanumerics(int ix) {
+        while (ix < length && isAlphanumeric(src[ix])) ix++;
+        return ix;
+    }
+
+    private boolean startsWith(int ix, String s) {
+        if (ix + s.length() > length) return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (src[ix + i] != s.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    // cached per character, since the (mostly ascending) searches for closing quotes could otherwise become
+    // quadratic on inputs with many unbalanced quotes
+    private final int[] searchFrom = {Integer.MAX_VALUE, Integer.MAX_VALUE};
+    private final int[] searchResult = new int[2];
+
+    private int indexOf(char c, int from) {
+        int slot = c == '"' ? 0 : 1;
+        if (searchFrom[slot] <= from && (searchResult[slot] < 0 || searchResult[slot] >= from)) {
+            return searchResult[slot];
+        }
+        int i = from;
+        while (i < length && src[i] != c) i++;
+        searchFrom[slot] = from;
+        return searchResult[slot] = i < length ? i : -1;
+    }
+
+    private int commentSearchFrom = Integer.MAX_VALUE;
+    private int commentSearchResult;
+
+    private int indexOf(String s, int from) {
+        if (commentSearchFrom <= from && (commentSearchResult < 0 || commentSearchResult >= from)) {
+            return commentSearchResult;
+        }
+        int i = from;
+        while (i < length && !startsWith(i, s)) i++;
+        commentSearchFrom = from;
+        return commentSearchResult = i < length ? i : -1;
+    }
+
+    private static boolean isLetter(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z';
+    }
+
+    private static boolean isAlphanumeric(char c) {
+        return isLetter(c) || c >= '0' && c <= '9';
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown;
+
+import org.parboiled.MatcherContext;
+import org.parboiled.Rule;
+import org.parboiled.buffers.InputBuffer;
+import org.parboiled.matchers.CustomMatcher;
+import org.parboiled.matchers.Matcher;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tries the alternatives of a {@link Parser#Block()} in order like a FirstOf, but skips the alternatives that cannot
+ * start with the first char of the block. The candidates are looked up in a table by that first char and by the
+ * indentation of the line, i.e. by the char after up to three spaces, as in {@link Parser#NonindentSpace()},
+ * and by whether the line is indented by a tab or four spaces, as in {@link Parser#Indent()}.
+ * All non-ASCII chars share the candidates of the alternatives that can start with any non-ASCII char.
+ */
+class BlockDispatchMatcher extends CustomMatcher {
+    private static final int ANY_LINE = 0, UNINDENTED = 1, NONINDENTED = 2, INDENTED = 3;
+
+    private final Matcher[][] unindented = new Matcher[129][]; // by the first char, non-ASCII chars at 128
+    private final Matcher[][] nonindented = new Matcher[129][]; // by the char after one to three spaces
+    private final Matcher[] indented;
+
+    private BlockDispatchMatcher(Rule[] rules, int[] kinds, String[] startChars) {
+        super(rules, "BlockDispatch");
+        List<Matcher> children = getChildren();
+        for (int c = 0; c < 129; c++) {
+            unindented[c] = candidates(children, kinds, startChars, 0, c);
+            nonindented[c] = candidates(children, kinds, startChars, 1, c);
+        }
+        indented = candidates(children, kinds, startChars, 4, 128);
+    }
+
+    private static Matcher[] candidates(List<Matcher> children, int[] kinds, String[] startChars, int indent, int c) {
+        List<Matcher> candidates = new ArrayList<Matcher>();
+        for (int i = 0; i < kinds.length; i++) {
+            boolean startChar = startChars[i] == null ||
+                    (c < 128 ? startChars[i].indexOf(c) >= 0 : hasNonAsciiChar(startChars[i]));
+            switch (kinds[i]) {
+                case UNINDENTED:
+                    if (indent == 0 && startChar) candidates.add(children.get(i));
+                    break;
+                case NONINDENTED:
+                    if (indent < 4 && startChar) candidates.add(children.get(i));
+                    break;
+                case INDENTED:
+                    if (indent == 4) candidates.add(children.get(i));
+                    break;
+                default:
+                    candidates.add(children.get(i));
+            }
+        }
+        return candidates.toArray(new Matcher[candidates.size()]);
+    }
+
+    private static boolean hasNonAsciiChar(String chars) {
+        for (int i = 0; i < chars.length(); i++) {
+            if (chars.charAt(i) >= 128) return true;
+        }
+        return false;
+    }
+
+    public <V> boolean match(MatcherContext<V> context) {
+        for (Matcher matcher : candidates(context.getInputBuffer(), context.getCurrentIndex())) {
+            if (matcher.getSubContext(context).runMatcher()) {
+                context.createNode();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Matcher[] candidates(InputBuffer input, int index) {
+        char c = input.charAt(index);
+        if (c == '\t') return indented;
+        if (c != ' ') return unindented[Math.min(c, 128)];
+        int spaces = 1;
+        while (spaces < 4 && (c = input.charAt(index + spaces)) == ' ') spaces++;
+        return spaces == 4 ? indented : nonindented[Math.min(c, 128)];
+    }
+
+    public boolean isSingleCharMatcher() {
+        return false;
+    }
+
+    public boolean canMatchEmpty() {
+        return false;
+    }
+
+    public boolean isStarterChar(char c) {
+        return true;
+    }
+
+    public char getStarterChar() {
+        return 'a';
+    }
+
+    /**
+     * Collects the alternatives of a {@link BlockDispatchMatcher} in order, together with the chars they can start
+     * with. Null rules are skipped, like disabled extensions in an ArrayBuilder.
+     */
+    static class Builder {
+        private final boolean dispatching;
+        private final List<Rule> rules = new ArrayList<Rule>();
+        private final List<Integer> kinds = new ArrayList<Integer>();
+        private final List<String> startChars = new ArrayList<String>();
+
+        /**
+         * @param dispatching false to try all alternatives at every line like a FirstOf, e.g. because the start
+         *                    chars given for them might not hold for the rules of a parser subclass
+         */
+        Builder(boolean dispatching) {
+            this.dispatching = dispatching;
+        }
+
+        /**
+         * Adds rules that can start any block.
+         */
+        Builder anyLine(Rule... rules) {
+            for (Rule rule : rules) add(rule, ANY_LINE, null);
+            return this;
+        }
+
+        /**
+         * Adds a rule matching one of the given chars at the very start of the line,
+         * or any char but a space or tab if the chars are null.
+         */
+        Builder unindented(String startChars, Rule rule) {
+            return add(rule, UNINDENTED, startChars);
+        }
+
+        /**
+         * Adds a rule matching one of the given chars after a {@link Parser#NonindentSpace()}.
+         */
+        Builder nonindented(String startChars, Rule rule) {
+            return add(rule, NONINDENTED, startChars);
+        }
+
+        /**
+         * Adds block plugin rules, each one either for the blocks starting with one of its trigger chars after a
+         * {@link Parser#NonindentSpace()} or, without trigger chars, for any block.
+         */
+        Builder plugins(Rule[] rules, String[] triggerChars) {
+            for (int i = 0; i < rules.length; i++) {
+                add(rules[i], triggerChars[i] != null ? NONINDENTED : ANY_LINE, triggerChars[i]);
+            }
+            return this;
+        }
+
+        /**
+         * Adds a rule matching an {@link Parser#Indent()} at the start of the line.
+         */
+        Builder indented(Rule rule) {
+            return add(rule, INDENTED, null);
+        }
+
+        private Builder add(Rule rule, int kind, String startChars) {
+            if (rule != null) {
+                rules.add(rule);
+                kinds.add(dispatching ? kind : ANY_LINE);
+                this.startChars.add(dispatching ? startChars : null);
+            }
+            return this;
+        }
+
+        BlockDispatchMatcher build() {
+            int[] kinds = new int[this.kinds.size()];
+            for (int i = 0; i < kinds.length; i++) kinds[i] = this.kinds.get(i);
+            return new BlockDispatchMatcher(rules.toArray(new Rule[rules.size()]), kinds,
+                    startChars.toArray(new String[startChars.size()]));
+        }
+    }
+}
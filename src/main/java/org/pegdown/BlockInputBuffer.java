@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown;
+
+import org.parboiled.buffers.InputBuffer;
+import org.parboiled.support.Chars;
+
+/**
+ * The input of the inner parse of a list item or block quote: a view onto the block collected by the outer parse
+ * that skips the {@link Parser#CROSSED_OUT} chars, without copying the block.
+ * Every char of the block stands for the char of the outer input at the same offset from the start of the block,
+ * so {@link #getOriginalIndex(int)} can map an index of the inner parse to an index of the original source
+ * through the outer input.
+ */
+class BlockInputBuffer extends AbstractInputBuffer {
+    private final StringBuilder block;
+    private final InputBuffer outer;
+    private final int blockStart;
+    private final int length;
+    // the runs of chars that are not crossed out, by index into this buffer and into the block
+    private final int[] runStarts;
+    private final int[] runBlockStarts;
+    private int run; // the run of the last access, accesses are mostly sequential
+    private int runStart, runEnd, runOffset; // the bounds and the block offset of that run
+
+    /**
+     * @param block the block collected by the outer parse
+     * @param outer the input of the outer parse
+     * @param blockStart the index of the block start in the outer input
+     */
+    BlockInputBuffer(StringBuilder block, InputBuffer outer, int blockStart) {
+        this.block = block;
+        this.outer = outer;
+        this.blockStart = blockStart;
+
+        int runCount = 0;
+        int blockLength = block.length();
+        for (int i = 0; i < blockLength; i++) {
+            if (block.charAt(i) != Parser.CROSSED_OUT && (i == 0 || block.charAt(i - 1) == Parser.CROSSED_OUT)) {
+                runCount++;
+            }
+        }
+        // a final empty run marks the end of the buffer
+        runStarts = new int[runCount + 1];
+        runBlockStarts = new int[runCount + 1];
+        int length = 0;
+        runCount = 0;
+        for (int i = 0; i < blockLength; i++) {
+            if (block.charAt(i) != Parser.CROSSED_OUT) {
+                if (i == 0 || block.charAt(i - 1) == Parser.CROSSED_OUT) {
+                    runStarts[runCount] = length;
+                    runBlockStarts[runCount++] = i;
+                }
+                length++;
+            }
+        }
+        runStarts[runCount] = length;
+        runBlockStarts[runCount] = blockLength;
+        this.length = length;
+    }
+
+    public char charAt(int index) {
+        if (runStart <= index && index < runEnd) return block.charAt(index + runOffset);
+        return 0 <= index && index < length ? block.charAt(toBlockIndex(index)) : Chars.EOI;
+    }
+
+    @Override
+    public int getOriginalIndex(int index) {
+        // doesn't go through the cached run, so that mapping node indices doesn't slow down the sequential reads
+        int r = findRun(Math.min(Math.max(index, 0), length));
+        return outer.getOriginalIndex(blockStart + runBlockStarts[r] + index - runStarts[r]);
+    }
+
+    int length() {
+        return length;
+    }
+
+    private int toBlockIndex(int index) {
+        int r = run;
+        int end = runStarts.length - 1; // the final empty run
+        if (r + 1 < end && runStarts[r + 1] <= index && index < runStarts[r + 2]) {
+            r++;
+        } else {
+            r = findRun(index);
+        }
+        run = r;
+        if (r < end) {
+            runStart = runStarts[r];
+            runEnd = runStarts[r + 1];
+            runOffset = runBlockStarts[r] - runStart;
+        }
+        return runBlockStarts[r] + index - runStarts[r];
+    }
+
+    // finds the last run starting at or before the given index, i.e. the final empty run for the end index
+    private int findRun(int index) {
+        int low = 0, high = runStarts.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (runStarts[mid] <= index) low = mid;
+            else high = mid - 1;
+        }
+        return low;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown;
+
+import org.parboiled.MatcherContext;
+import org.parboiled.Rule;
+import org.parboiled.matchers.CustomMatcher;
+import org.parboiled.matchers.Matcher;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tries a number of alternatives in order like a FirstOf, but skips the alternatives that cannot start with the
+ * char at the current position. The candidates for ASCII chars are looked up in a table, the other chars only
+ * go through the alternatives that can start with any char or with a non-ASCII char.
+ */
+class CharDispatchMatcher extends CustomMatcher {
+    private final Matcher[][] ascii = new Matcher[128][];
+    private final Matcher[] other; // the candidates for non-ASCII chars and EOI
+    private final String[] otherStartChars;
+
+    private CharDispatchMatcher(Rule[] rules, String[] startChars, String label) {
+        super(rules, label);
+        List<Matcher> children = getChildren();
+        for (char c = 0; c < 128; c++) {
+            List<Matcher> candidates = new ArrayList<Matcher>();
+            for (int i = 0; i < startChars.length; i++) {
+                if (startChars[i] == null || startChars[i].indexOf(c) >= 0) candidates.add(children.get(i));
+            }
+            ascii[c] = candidates.toArray(new Matcher[candidates.size()]);
+        }
+        List<Matcher> other = new ArrayList<Matcher>();
+        List<String> otherStartChars = new ArrayList<String>();
+        for (int i = 0; i < startChars.length; i++) {
+            if (startChars[i] == null || !isAscii(startChars[i])) {
+                other.add(children.get(i));
+                otherStartChars.add(startChars[i]);
+            }
+        }
+        this.other = other.toArray(new Matcher[other.size()]);
+        this.otherStartChars = otherStartChars.toArray(new String[otherStartChars.size()]);
+    }
+
+    private static boolean isAscii(String chars) {
+        for (int i = 0; i < chars.length(); i++) {
+            if (chars.charAt(i) >= 128) return false;
+        }
+        return true;
+    }
+
+    public <V> boolean match(MatcherContext<V> context) {
+        char c = context.getCurrentChar();
+        if (c < 128) {
+            for (Matcher matcher : ascii[c]) {
+                if (run(matcher, context)) return true;
+            }
+        } else {
+            for (int i = 0; i < other.length; i++) {
+                if ((otherStartChars[i] == null || otherStartChars[i].indexOf(c) >= 0) && run(other[i], context)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static <V> boolean run(Matcher matcher, MatcherContext<V> context) {
+        if (!matcher.getSubContext(context).runMatcher()) return false;
+        context.createNode();
+        return true;
+    }
+
+    public boolean isSingleCharMatcher() {
+        return false;
+    }
+
+    public boolean canMatchEmpty() {
+        return false;
+    }
+
+    public boolean isStarterChar(char c) {
+        if (c < 128) return ascii[c].length > 0;
+        for (String chars : otherStartChars) {
+            if (chars == null || chars.indexOf(c) >= 0) return true;
+        }
+        return false;
+    }
+
+    public char getStarterChar() {
+        char c = 0;
+        while (c < 128 && ascii[c].length == 0) c++;
+        return c;
+    }
+
+    /**
+     * Collects the alternatives of a {@link CharDispatchMatcher} in order, together with the chars they can start
+     * with. Null rules are skipped, like disabled extensions in an ArrayBuilder.
+     */
+    static class Builder {
+        private final boolean dispatching;
+        private final List<Rule> rules = new ArrayList<Rule>();
+        private final List<String> startChars = new ArrayList<String>();
+
+        /**
+         * @param dispatching false to try all alternatives at every char like a FirstOf, e.g. because the start
+         *                    chars given for them might not hold for the rules of a parser subclass
+         */
+        Builder(boolean dispatching) {
+            this.dispatching = dispatching;
+        }
+
+        /**
+         * Adds rules that can start with any char.
+         */
+        Builder any(Rule... rules) {
+            return on(null, rules);
+        }
+
+        /**
+         * Adds rules that can only start with one of the given chars.
+         */
+        Builder on(String startChars, Rule... rules) {
+            for (Rule rule : rules) {
+                if (rule != null) {
+                    this.rules.add(rule);
+                    this.startChars.add(dispatching ? startChars : null);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Adds inline plugin rules, each one for its trigger chars or, without trigger chars, for any char.
+         */
+        Builder plugins(Rule[] rules, String[] triggerChars) {
+            for (int i = 0; i < rules.length; i++) on(triggerChars[i], rules[i]);
+            return this;
+        }
+
+        CharDispatchMatcher build(String label) {
+            return new CharDispatchMatcher(rules.toArray(new Rule[rules.size()]),
+                    startChars.toArray(new String[startChars.size()]), label);
+        }
+    }
+}
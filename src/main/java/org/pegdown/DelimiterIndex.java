@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pegdown;
+
+import org.parboiled.buffers.InputBuffer;
+import org.parboiled.support.Chars;
+
+import java.util.Arrays;
+
+/**
+ * The positions of the chars of an input that can close a link label, a link source or a quote, built in one scan
+ * of the input, so that {@link Parser#hasCloserAhead(char)} can tell that such a construct cannot be closed without
+ * parsing its content. Escaped brackets and parentheses are skipped. Since inline content doesn't span blank lines
+ * (apart from inline HTML, which starts with a '<'), only closers before the next blank line count.
+ * Backticks are ignored, closers in code spans are counted even though they cannot close anything.
+ */
+final class DelimiterIndex {
+    private final Positions brackets = new Positions();
+    private final Positions parens = new Positions();
+    private final Positions doubleQuotes = new Positions();
+    private final Positions singleQuotes = new Positions(); // the ones not followed by a letter or digit
+    private final Positions angles = new Positions();
+    private final Positions blankLines = new Positions(); // the line breaks followed by a blank line
+
+    // indexes an input of unknown length, which ends at the first EOI char
+    DelimiterIndex(InputBuffer input) {
+        this(input, lengthOf(input));
+    }
+
+    DelimiterIndex(InputBuffer input, int length) {
+        for (int i = 0; i < length; i++) {
+            char c = input.charAt(i);
+            switch (c) {
+                case '\\':
+                    char next = input.charAt(i + 1);
+                    if (next == '\\' || next == ']' || next == ')') i++;
+                    break;
+                case ']': brackets.add(i); break;
+                case ')': parens.add(i); break;
+                case '"': doubleQuotes.add(i); break;
+                case '\'':
+                    if (!isAsciiLetterOrDigit(input.charAt(i + 1))) singleQuotes.add(i);
+                    break;
+                case '<': angles.add(i); break;
+                case '\r':
+                case '\n':
+                    int j = i + 1;
+                    if (c == '\r' && input.charAt(j) == '\n') j++;
+                    while (input.charAt(j) == ' ' || input.charAt(j) == '\t') j++;
+                    if (input.charAt(j) == '\n' || input.charAt(j) == '\r') blankLines.add(i);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * @param closer one of ']', ')', '"' and '\''
+     * @param index the index to look for a closer from
+     * @param bounded whether inline content ends at a blank line, i.e. whether there are no plugin inline rules
+     * @return false if no closer can be reached from the given index
+     */
+    boolean hasCloserAhead(char closer, int index, boolean bounded) {
+        Positions closers =
+                closer == ']' ? brackets : closer == ')' ? parens : closer == '"' ? doubleQuotes : singleQuotes;
+        int next = closers.next(index);
+        if (next < 0) return false;
+        if (!bounded || closer == ')') return true; // link sources and titles are not inline content
+        int blankLine = blankLines.next(index);
+        if (blankLine < 0 || next < blankLine) return true;
+        int angle = angles.next(index);
+        return angle >= 0 && angle < blankLine;
+    }
+
+    private static int lengthOf(InputBuffer input) {
+        int length = 0;
+        while (input.charAt(length) != Chars.EOI) length++;
+        return length;
+    }
+
+    private static boolean isAsciiLetterOrDigit(char c) {
+        return 'a' <= c && c <= 'z' || 'A' <= c && c <= 'Z' || '0' <= c && c <= '9';
+    }
+
+    private static final class Positions {
+        private int[] positions = new int[8];
+        private int size;
+
+        void add(int position) {
+            if (size == positions.length) positions = Arrays.copyOf(positions, size * 2);
+            positions[size++] = position;
+        }
+
+        // the first position at or after the given index or -1 if there is none
+        int next(int index) {
+            int i = Arrays.binarySearch(positions, 0, size, index);
+            if (i < 0) i = -(i + 1);
+            return i < size ? positions[i] : -1;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pegdown;
+
+import org.pegdown.ast.TextNode;
+
+/**
+ * A run of emphasis delimiters, i.e. of '*', '_' or '~' chars, as recorded by the parser with the
+ * {@link Extensions#DELIMITER_RUNS} extension. The {@link DelimiterRunResolver} pairs the runs of every inline
+ * container into StrongEmphSuperNodes and StrikeNodes and turns the chars it doesn't use into plain text,
+ * so these nodes never show up in a parsed AST.
+ */
+class DelimiterRunNode extends TextNode {
+    final char delimiter;
+    final boolean canOpen;
+    final boolean canClose;
+    int count; // the number of chars not used yet, the unused chars of openers are at the start of the run
+    int start; // the index of the first unused char
+
+    DelimiterRunNode(String run, boolean canOpen, boolean canClose) {
+        super(run);
+        this.delimiter = run.charAt(0);
+        this.count = run.length();
+        this.canOpen = canOpen;
+        this.canClose = canClose;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pegdown;
+
+import org.pegdown.ast.AbbreviationNode;
+import org.pegdown.ast.Node;
+import org.pegdown.ast.RefImageNode;
+import org.pegdown.ast.RefLinkNode;
+import org.pegdown.ast.StrikeNode;
+import org.pegdown.ast.StrongEmphSuperNode;
+import org.pegdown.ast.SuperNode;
+import org.pegdown.ast.TextNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Builds the emphasis, strong emphasis and strikethrough nodes of an AST parsed with the
+ * {@link Extensions#DELIMITER_RUNS} extension from the {@link DelimiterRunNode}s in the children of its
+ * inline containers.
+ * Every closing run is paired with the nearest opening run of the same char before it, preferring an opener that is
+ * as long as a closer of one or two chars, the openers in between are given up. Like the unused chars of all
+ * runs, they become plain text. Both runs must have at least two chars for a strong emphasis or a strikethrough,
+ * which only '~' runs can form. Since every node is moved into its enclosing emphasis node only once and no search
+ * for an opener passes the same opener twice without using it, the resolution takes time linear in the number of
+ * nodes.
+ */
+final class DelimiterRunResolver {
+    private final List<DelimiterRunNode> openers = new ArrayList<DelimiterRunNode>();
+    private final List<Integer> openerIndices = new ArrayList<Integer>(); // the indices of the openers in the output
+    // per delimiter and kind of opener, the stack height below which no opener for a closer exists
+    private final int[] bottoms = new int[9];
+    private static final int ANY = 0, SINGLE = 1, LONG = 2;
+
+    private DelimiterRunResolver() {}
+
+    /**
+     * Resolves the delimiter runs in the given subtree.
+     *
+     * @param node the root of the subtree
+     */
+    static void resolve(Node node) {
+        new DelimiterRunResolver().resolveTree(node);
+    }
+
+    private void resolveTree(Node node) {
+        if (node instanceof RefLinkNode) resolveTree(((RefLinkNode) node).referenceKey);
+        else if (node instanceof RefImageNode) resolveTree(((RefImageNode) node).referenceKey);
+        else if (node instanceof AbbreviationNode) resolveTree(((AbbreviationNode) node).getExpansion());
+        if (!(node instanceof SuperNode)) return;
+
+        List<Node> children = node.getChildren();
+        boolean hasRuns = false;
+        for (Node child : children) {
+            if (child instanceof DelimiterRunNode) hasRuns = true;
+            else resolveTree(child);
+        }
+        if (hasRuns) {
+            List<Node> resolved = resolveRuns(children);
+            children.clear();
+            children.addAll(resolved);
+        }
+    }
+
+    private List<Node> resolveRuns(List<Node> children) {
+        List<Node> out = new ArrayList<Node>(children.size());
+        openers.clear();
+        openerIndices.clear();
+        Arrays.fill(bottoms, 0);
+
+        for (Node child : children) {
+            if (!(child instanceof DelimiterRunNode)) {
+                append(out, child);
+                continue;
+            }
+            DelimiterRunNode run = (DelimiterRunNode) child;
+            run.start = run.getStartIndex();
+            if (run.canClose) close(run, out);
+            if (run.count > 0 && run.canOpen) {
+                openers.add(run);
+                openerIndices.add(out.size());
+                out.add(run);
+            } else if (run.count > 0) {
+                append(out, toText(run));
+            }
+        }
+        // the openers left over are plain text
+        List<Node> resolved = new ArrayList<Node>(out.size());
+        for (Node node : out) append(resolved, node instanceof DelimiterRunNode ? toText((DelimiterRunNode) node) : node);
+        return resolved;
+    }
+
+    private void close(DelimiterRunNode closer, List<Node> out) {
+        while (closer.count > (closer.delimiter == '~' ? 1 : 0)) {
+            // a closer of three or more chars closes the nearest opener, since it can close two emphasis nodes
+            int i = closer.count < 3 ? findOpener(closer.delimiter, closer.count == 2 ? LONG : SINGLE) : -1;
+            if (i < 0) i = findOpener(closer.delimiter, ANY);
+            if (i < 0) return;
+            DelimiterRunNode opener = openers.get(i);
+            int openerIndex = openerIndices.get(i);
+            removeOpeners(i + 1); // give up the openers in between
+
+            // like the default rules, a strong emphasis encloses the emphasis of two runs of three or more chars
+            int used = opener.count >= 2 && closer.count >= 2 && (opener.count < 3 || closer.count < 3) ? 2 : 1;
+            StrongEmphSuperNode node = new StrongEmphSuperNode(chars(closer.delimiter, used));
+            List<Node> enclosed = out.subList(openerIndex + 1, out.size());
+            for (Node enclosedNode : enclosed) {
+                append(node.getChildren(), enclosedNode instanceof DelimiterRunNode ?
+                        toText((DelimiterRunNode) enclosedNode) : enclosedNode);
+            }
+            enclosed.clear();
+            node.setClosed(true);
+            opener.count -= used;
+            node.setStartIndex(opener.start + opener.count);
+            node.setEndIndex(closer.start + used);
+            closer.count -= used;
+            closer.start += used;
+            if (opener.count == 0) {
+                out.remove(openerIndex);
+                removeOpeners(i);
+            } else {
+                lowerBottoms(i); // the opener may have become a single char opener
+            }
+            if (closer.delimiter == '~') {
+                StrikeNode strike = new StrikeNode(node);
+                strike.setStartIndex(node.getStartIndex());
+                strike.setEndIndex(node.getEndIndex());
+                out.add(strike);
+            } else {
+                out.add(node);
+            }
+        }
+    }
+
+    // finds the topmost opener of the given kind for a closer of the given delimiter, which needs two chars for '~'
+    private int findOpener(char delimiter, int kind) {
+        int slot = (delimiter == '*' ? 0 : delimiter == '_' ? 3 : 6) + kind;
+        for (int i = openers.size() - 1; i >= bottoms[slot]; i--) {
+            DelimiterRunNode opener = openers.get(i);
+            if (opener.delimiter == delimiter && (delimiter != '~' || opener.count >= 2) &&
+                    (kind == ANY || (kind == SINGLE) == (opener.count == 1))) return i;
+        }
+        bottoms[slot] = openers.size();
+        return -1;
+    }
+
+    private void removeOpeners(int from) {
+        for (int i = openers.size() - 1; i >= from; i--) {
+            openers.remove(i);
+            openerIndices.remove(i);
+        }
+        lowerBottoms(from);
+    }
+
+    private void lowerBottoms(int height) {
+        for (int i = 0; i < bottoms.length; i++) bottoms[i] = Math.min(bottoms[i], height);
+    }
+
+    private static TextNode toText(DelimiterRunNode run) {
+        TextNode text = new TextNode(chars(run.delimiter, run.count));
+        text.setStartIndex(run.start);
+        text.setEndIndex(run.start + run.count);
+        return text;
+    }
+
+    // appends the given node, collapsing peer TextNodes like Parser.addAsChild()
+    private static void append(List<Node> nodes, Node node) {
+        if (node.getClass() == TextNode.class && !nodes.isEmpty()) {
+            Node last = nodes.get(nodes.size() - 1);
+            if (last.getClass() == TextNode.class) {
+                ((TextNode) last).append(((TextNode) node).getText());
+                ((TextNode) last).setEndIndex(node.getEndIndex());
+                return;
+            }
+        }
+        nodes.add(node);
+    }
+
+    private static String chars(char delimiter, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, delimiter);
+        return new String(chars);
+    }
+}
@@ -153,6 +153,15 @@ public interface Extensions {
      */
     static final int EXTANCHORLINKS = 0x00400000;
 
+    /**
+     * Resolves emphasis, strong emphasis and ~~strikethroughs~~ by pairing the runs of '*', '_' and '~' chars of every
+     * inline container after parsing, instead of with the backtracking emphasis rules, which takes linear time for
+     * any number of runs. A run opens after whitespace or at the start of its container and closes after a
+     * non-whitespace char, a single char run only if it is not followed by a letter or digit.
+     * Runs are paired innermost first, so results can differ from the default rules for runs that are not balanced.
+     */
+    static final int DELIMITER_RUNS = 0x00800000;
+
     /**
      * All Optionals other than Suppress and FORCELISTITEMPARA which is a backwards compatibility extension
      *
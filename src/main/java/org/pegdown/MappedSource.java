@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Provides the content of a memory-mapped file as a CharSequence that lives outside of the Java heap.
+ * If every char of the file is encoded as one byte of the same value (always the case for ISO-8859-1, and for
+ * US-ASCII and UTF-8 files without non-ASCII chars) the mapping is read directly, otherwise the file is decoded
+ * into a direct CharBuffer.
+ */
+final class MappedSource {
+    private MappedSource() {}
+
+    /**
+     * @param file the file to map
+     * @param charset the encoding of the file
+     * @return the content of the file
+     * @throws IOException if the file cannot be mapped
+     */
+    static CharSequence map(File file, Charset charset) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            if (channel.size() > Integer.MAX_VALUE - 2) throw new IOException("File too large: " + file);
+            ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return isLatin1(bytes, charset) ? new Latin1Chars(bytes, 0, bytes.limit()) : decode(bytes, charset);
+        } finally {
+            in.close(); // the mapping stays valid
+        }
+    }
+
+    private static boolean isLatin1(ByteBuffer bytes, Charset charset) {
+        String name = charset.name();
+        if (name.equals("ISO-8859-1")) return true;
+        if (!name.equals("UTF-8") && !name.equals("US-ASCII")) return false;
+        for (int i = 0, limit = bytes.limit(); i < limit; i++) {
+            if (bytes.get(i) < 0) return false;
+        }
+        return true;
+    }
+
+    private static CharSequence decode(ByteBuffer bytes, Charset charset) throws CharacterCodingException {
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        long maxChars = (long) (bytes.limit() * (double) decoder.maxCharsPerByte()) + 1;
+        CharBuffer chars = ByteBuffer.allocateDirect((int) Math.min(maxChars, Integer.MAX_VALUE / 2) * 2).asCharBuffer();
+        CoderResult result = decoder.decode(bytes, chars, true);
+        if (result.isUnderflow()) result = decoder.flush(chars);
+        if (!result.isUnderflow()) result.throwException();
+        chars.flip();
+        return chars;
+    }
+
+    private static final class Latin1Chars implements CharSequence {
+        private final ByteBuffer bytes;
+        private final int start;
+        private final int end;
+
+        Latin1Chars(ByteBuffer bytes, int start, int end) {
+            this.bytes = bytes;
+            this.start = start;
+            this.end = end;
+        }
+
+        public int length() {
+            return end - start;
+        }
+
+        public char charAt(int index) {
+            return (char) (bytes.get(start + index) & 0xFF);
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            return new Latin1Chars(bytes, this.start + start, this.start + end);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(length());
+            for (int i = start; i < end; i++) sb.append((char) (bytes.get(i) & 0xFF));
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown;
+
+import org.parboiled.support.Chars;
+
+import java.nio.CharBuffer;
+
+import static org.parboiled.common.Preconditions.checkArgNotNull;
+import static org.parboiled.common.Preconditions.checkArgument;
+
+/**
+ * An InputBuffer over a markdown source given as a CharSequence or a char[] slice, which virtually appends the two
+ * trailing newlines the parser needs (see {@link PegDownProcessor#prepareSource(char[])}) instead of copying
+ * the source. Array backed CharBuffers are read from their array directly.
+ * The source must not be modified while it is being parsed.
+ */
+public class MarkdownInputBuffer extends AbstractInputBuffer {
+    private final char[] array;
+    private final CharSequence chars;
+    private final int offset;
+    private final int sourceLength; // without the trailing newlines
+
+    /**
+     * @param source the markdown source
+     */
+    public MarkdownInputBuffer(CharSequence source) {
+        checkArgNotNull(source, "source");
+        if (source instanceof CharBuffer && ((CharBuffer) source).hasArray()) {
+            CharBuffer buffer = (CharBuffer) source;
+            this.array = buffer.array();
+            this.chars = null;
+            this.offset = buffer.arrayOffset() + buffer.position();
+        } else {
+            this.array = null;
+            this.chars = source;
+            this.offset = 0;
+        }
+        this.sourceLength = source.length();
+    }
+
+    /**
+     * @param source the array holding the markdown source
+     * @param offset the index of the first char of the markdown source
+     * @param length the length of the markdown source
+     */
+    public MarkdownInputBuffer(char[] source, int offset, int length) {
+        checkArgNotNull(source, "source");
+        checkArgument(offset >= 0 && length >= 0 && offset + length <= source.length, "illegal source slice");
+        this.array = source;
+        this.chars = null;
+        this.offset = offset;
+        this.sourceLength = length;
+    }
+
+    public char charAt(int index) {
+        if (0 <= index && index < sourceLength) return array != null ? array[offset + index] : chars.charAt(index);
+        return index >= sourceLength && index < sourceLength + 2 ? '\n' : Chars.EOI;
+    }
+
+    @Override
+    public String extract(int start, int end) {
+        if (array != null && 0 <= start && start < end && end <= sourceLength) {
+            return new String(array, offset + start, end - start);
+        }
+        return super.extract(start, end);
+    }
+
+    int length() {
+        return sourceLength + 2;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pegdown;
+
+import org.parboiled.MatcherContext;
+import org.parboiled.buffers.InputBuffer;
+import org.parboiled.matchers.CustomMatcher;
+import org.parboiled.support.Chars;
+
+/**
+ * Matches a run of one or more normal chars, i.e. of chars that are neither special chars of the parser
+ * configuration nor spaces, tabs or newlines, in one loop over a lookup table instead of running the
+ * matchers of {@link Parser#NormalChar()} for every char.
+ */
+class NormalCharsMatcher extends CustomMatcher {
+    private final boolean[] asciiStops = new boolean[128];
+    private final String otherStops; // the special chars outside of ASCII and EOI
+
+    /**
+     * @param specialChars the special chars of the parser configuration
+     */
+    NormalCharsMatcher(String specialChars) {
+        super("NormalChars");
+        StringBuilder otherStops = new StringBuilder().append(Chars.EOI);
+        for (char c : (specialChars + " \t\n\r").toCharArray()) {
+            if (c < 128) asciiStops[c] = true;
+            else otherStops.append(c);
+        }
+        this.otherStops = otherStops.toString();
+    }
+
+    public <V> boolean match(MatcherContext<V> context) {
+        InputBuffer input = context.getInputBuffer();
+        int start = context.getCurrentIndex();
+        int index = start;
+        while (isNormalChar(input.charAt(index))) index++;
+        if (index == start) return false;
+        context.advanceIndex(index - start);
+        context.createNode();
+        return true;
+    }
+
+    private boolean isNormalChar(char c) {
+        return c < 128 ? !asciiStops[c] : otherStops.indexOf(c) < 0;
+    }
+
+    public boolean isSingleCharMatcher() {
+        return false;
+    }
+
+    public boolean canMatchEmpty() {
+        return false;
+    }
+
+    public boolean isStarterChar(char c) {
+        return isNormalChar(c);
+    }
+
+    public char getStarterChar() {
+        char c = 'a';
+        while (!isNormalChar(c)) c++;
+        return c;
+    }
+}
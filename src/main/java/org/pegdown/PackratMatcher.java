@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pegdown;
+
+import org.parboiled.MatcherContext;
+import org.parboiled.Rule;
+import org.parboiled.matchers.CustomMatcher;
+import org.parboiled.matchers.Matcher;
+import org.parboiled.support.ValueStack;
+import org.parboiled.support.Var;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Wraps a rule whose result only depends on the input position it is tried at (and optionally on the value of a
+ * Var), so that its complete results, i.e. the end index and the values it pushed, can be memoized in the
+ * {@link PackratMemo} of the current {@link ParsingSession} and replayed when the rule is tried at the same position
+ * again. The rule must not touch the value stack below the values it pushes. Memoization is skipped in predicates,
+ * where parboiled doesn't run the actions pushing the values.
+ */
+class PackratMatcher extends CustomMatcher {
+    private static final AtomicInteger ids = new AtomicInteger();
+
+    private final Parser parser;
+    private final Var<?> key;
+    private final char starterChar;
+    private final int id = ids.getAndIncrement();
+
+    /**
+     * @param rule the rule to memoize
+     * @param parser the parser whose session holds the memo table
+     * @param key the Var the result also depends on, or null
+     * @param starterChar the first char of every match of the rule
+     */
+    PackratMatcher(Rule rule, Parser parser, Var<?> key, char starterChar) {
+        super(rule, "Packrat");
+        this.parser = parser;
+        this.key = key;
+        this.starterChar = starterChar;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <V> boolean match(MatcherContext<V> context) {
+        Matcher inner = getChildren().get(0);
+        ParsingSession session = parser.session;
+        if (session == null || context.inPredicate()) {
+            if (!inner.getSubContext(context).runMatcher()) return false;
+            context.createNode();
+            return true;
+        }
+
+        PackratMemo memo = session.packratMemo(parser.budget.getMaxMemoEntries());
+        int start = context.getCurrentIndex();
+        Object keyValue = key != null ? key.get() : null;
+        ValueStack<V> valueStack = context.getValueStack();
+        PackratMemo.Entry entry = memo.get(context.getInputBuffer(), id, start, keyValue);
+        if (entry != null) {
+            if (entry.end == PackratMemo.MISMATCH) return false;
+            for (Object value : entry.values) valueStack.push((V) value);
+            context.setCurrentIndex(entry.end);
+            context.createNode();
+            return true;
+        }
+
+        int stackSize = valueStack.size();
+        if (!inner.getSubContext(context).runMatcher()) {
+            memo.put(context.getInputBuffer(), id, start, new PackratMemo.Entry(keyValue, PackratMemo.MISMATCH, null));
+            return false;
+        }
+        Object[] values = new Object[valueStack.size() - stackSize];
+        for (int i = 0; i < values.length; i++) {
+            values[values.length - 1 - i] = valueStack.peek(i);
+        }
+        memo.put(context.getInputBuffer(), id, start, new PackratMemo.Entry(keyValue, context.getCurrentIndex(), values));
+        context.createNode();
+        return true;
+    }
+
+    public boolean isSingleCharMatcher() {
+        return false;
+    }
+
+    public boolean canMatchEmpty() {
+        return false;
+    }
+
+    public boolean isStarterChar(char c) {
+        return c == starterChar;
+    }
+
+    public char getStarterChar() {
+        return starterChar;
+    }
+}
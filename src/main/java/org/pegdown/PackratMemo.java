@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pegdown;
+
+import org.parboiled.buffers.InputBuffer;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The memo table of the {@link PackratMatcher}s of one document, holding the results of the memoized rules per
+ * input (the document itself as well as the blocks of its inner parses), matcher and input position.
+ * It holds at most the given number of entries and starts over empty whenever it is full.
+ */
+final class PackratMemo {
+    static final int MISMATCH = -1;
+
+    static final class Entry {
+        final Object key;
+        final int end; // MISMATCH if the rule did not match
+        final Object[] values; // the values the rule pushed, bottom first
+
+        Entry(Object key, int end, Object[] values) {
+            this.key = key;
+            this.end = end;
+            this.values = values;
+        }
+    }
+
+    private final int maxEntries;
+    private final Map<InputBuffer, Map<Long, Entry>> tables = new IdentityHashMap<InputBuffer, Map<Long, Entry>>();
+    private int size;
+
+    PackratMemo(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * @return the entry for the given input, matcher, position and context key or null if there is none
+     */
+    Entry get(InputBuffer input, int matcherId, int index, Object key) {
+        Map<Long, Entry> table = tables.get(input);
+        Entry entry = table != null ? table.get(key(matcherId, index)) : null;
+        return entry != null && (key == null ? entry.key == null : key.equals(entry.key)) ? entry : null;
+    }
+
+    void put(InputBuffer input, int matcherId, int index, Entry entry) {
+        if (size == maxEntries) {
+            tables.clear();
+            size = 0;
+        }
+        Map<Long, Entry> table = tables.get(input);
+        if (table == null) tables.put(input, table = new HashMap<Long, Entry>());
+        if (table.put(key(matcherId, index), entry) == null) size++;
+    }
+
+    private static Long key(int matcherId, int index) {
+        return ((long) matcherId << 32) | index;
+    }
+}
@@ -22,10 +22,13 @@ import org.parboiled.BaseParser;
 import org.parboiled.Context;
 import org.parboiled.Rule;
 import org.parboiled.annotations.*;
+import org.parboiled.buffers.DefaultInputBuffer;
+import org.parboiled.buffers.InputBuffer;
 import org.parboiled.common.ArrayBuilder;
 import org.parboiled.common.ImmutableList;
 import org.parboiled.parserunners.ParseRunner;
 import org.parboiled.parserunners.ReportingParseRunner;
+import org.parboiled.support.Chars;
 import org.parboiled.support.ParsingResult;
 import org.parboiled.support.StringBuilderVar;
 import org.parboiled.support.StringVar;
@@ -35,9 +38,10 @@ import org.pegdown.ast.Node;
 import org.pegdown.ast.SimpleNode.Type;
 import org.pegdown.plugins.PegDownPlugins;
 
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.Set;
 import java.util.HashSet;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -65,39 +69,96 @@ public class Parser extends BaseParser<Object> implements Extensions {
             };
 
     protected final int options;
-    protected final long maxParsingTimeInMillis;
+    protected final ParsingBudget budget;
+    protected final long maxParsingTimeInMillis; // the timeout of the budget
     protected final ParseRunnerProvider parseRunnerProvider;
     protected final PegDownPlugins plugins;
-    final List<AbbreviationNode> abbreviations = new ArrayList<AbbreviationNode>();
-    final List<ReferenceNode> references = new ArrayList<ReferenceNode>();
-    long parsingStartTimeStamp = 0L;
+
+    // the state of the currently running parse, only set during a call to `parse`
+    protected ParsingSession session;
 
     public boolean debugMsg(String msg, String text) {
         System.out.println(msg + ": '" + text + "'");
         return true;
     }
 
-    public Parser(Integer options, Long maxParsingTimeInMillis, ParseRunnerProvider parseRunnerProvider, PegDownPlugins plugins) {
+    public Parser(Integer options, ParsingBudget budget, ParseRunnerProvider parseRunnerProvider, PegDownPlugins plugins) {
         this.options = options;
-        this.maxParsingTimeInMillis = maxParsingTimeInMillis;
+        this.budget = budget;
+        this.maxParsingTimeInMillis = budget.getMaxParsingTimeInMillis();
         this.parseRunnerProvider = parseRunnerProvider;
         this.plugins = plugins;
     }
 
+    public Parser(Integer options, Long maxParsingTimeInMillis, ParseRunnerProvider parseRunnerProvider, PegDownPlugins plugins) {
+        this(options, ParsingBudget.timeout(maxParsingTimeInMillis), parseRunnerProvider, plugins);
+    }
+
     public Parser(Integer options, Long maxParsingTimeInMillis, ParseRunnerProvider parseRunnerProvider) {
         this(options, maxParsingTimeInMillis, parseRunnerProvider, PegDownPlugins.NONE);
     }
 
+    /**
+     * Parses the given markdown source within a fresh {@link ParsingSession}.
+     * Note that a parser instance can only run one parse at a time, since the parboiled rule graph keeps its
+     * action and variable state in the parser instance itself. The {@link PegDownProcessor} takes care of
+     * supplying every concurrent caller with its own instance.
+     *
+     * @param source the markdown source to parse
+     * @return the root node of the generated AST
+     */
     public RootNode parse(char[] source) {
+        return parse(source, new ParsingSession());
+    }
+
+    /**
+     * Parses the given markdown source within the given {@link ParsingSession}, which the caller can use to
+     * {@link ParsingSession#cancel() cancel} the parse from another thread.
+     *
+     * @param source the markdown source to parse
+     * @param session the fresh session to collect the parsing state in
+     * @return the root node of the generated AST
+     */
+    public RootNode parse(char[] source, ParsingSession session) {
+        return parse(new DefaultInputBuffer(source), session);
+    }
+
+    /**
+     * Parses the markdown source held by the given InputBuffer (which has to end with two newlines, like the
+     * {@link MarkdownInputBuffer}) within the given {@link ParsingSession}.
+     *
+     * @param input the markdown source to parse
+     * @param session the fresh session to collect the parsing state in
+     * @return the root node of the generated AST
+     */
+    public RootNode parse(InputBuffer input, ParsingSession session) {
+        this.session = session;
         try {
-            RootNode root = parseInternal(source);
-            root.setAbbreviations(ImmutableList.copyOf(abbreviations));
-            root.setReferences(ImmutableList.copyOf(references));
+            RootNode root = parseInternal(input);
+            if (ext(DELIMITER_RUNS)) DelimiterRunResolver.resolve(root);
+            root.setAbbreviations(ImmutableList.copyOf(session.abbreviations));
+            root.setReferences(ImmutableList.copyOf(session.references));
             return root;
         } finally {
-            abbreviations.clear();
-            references.clear();
+            session.finish();
+            this.session = null;
+        }
+    }
+
+    // applies the node limit to the children of the given node, dropping the ones beyond it,
+    // returns the number of nodes still allowed after them
+    private long limitNodeCount(SuperNode node, long nodesLeft) {
+        List<Node> children = node.getChildren();
+        for (int i = 0; i < children.size(); i++) {
+            if (nodesLeft-- <= 0) {
+                session.limits.exceeded(ResourceLimits.Limit.NODE_COUNT);
+                children.subList(i, children.size()).clear(); // the nodes beyond the limit are dropped
+                return 0;
+            }
+            Node child = children.get(i);
+            if (child instanceof SuperNode) nodesLeft = limitNodeCount((SuperNode) child, nodesLeft);
         }
+        return nodesLeft;
     }
 
     //************* BLOCKS ****************
@@ -105,24 +166,51 @@ public class Parser extends BaseParser<Object> implements Extensions {
     public Rule Root() {
         return NodeSequence(
                 push(new RootNode()),
-                ZeroOrMore(Block(), addAsChild())
+                ZeroOrMore(Block(), addBlock())
         );
     }
 
+    /**
+     * Adds the block on top of the value stack to the root below it, applying the node limit of the session to it:
+     * once a root has taken a block, the parser no longer backtracks from it (only from the whole inner parse the
+     * root belongs to), so the nodes of a document are counted block by block as it is being parsed.
+     */
+    public boolean addBlock() {
+        long maxNodeCount = session != null ? session.limits.getMaxNodeCount() : 0;
+        if (maxNodeCount > 0) {
+            long nodesLeft = session.nodesLeft(maxNodeCount);
+            if (nodesLeft <= 0) {
+                session.limits.exceeded(ResourceLimits.Limit.NODE_COUNT);
+                pop();
+                return true; // the block is dropped
+            }
+            Node block = (Node) peek();
+            long left = block instanceof SuperNode ? limitNodeCount((SuperNode) block, nodesLeft - 1) : nodesLeft - 1;
+            session.addNodes(nodesLeft - left);
+        }
+        return addAsChild();
+    }
+
     public Rule Block() {
         return Sequence(
                 ZeroOrMore(BlankLine()),
-                FirstOf(new ArrayBuilder<Rule>()
-                        .add(plugins.getBlockPluginRules())
-                        .add(BlockQuote(), Verbatim())
-                        .addNonNulls(ext(ABBREVIATIONS) ? Abbreviation() : null)
-                        .add(Reference(), HorizontalRule(), Heading(), OrderedList(), BulletList(), HtmlBlock())
-                        .addNonNulls(ext(TABLES) ? Table() : null)
-                        .addNonNulls(ext(DEFINITIONS) ? DefinitionList() : null)
-                        .addNonNulls(ext(FENCED_CODE_BLOCKS) ? FencedCodeBlock() : null)
-                        .add(Para(), Inlines())
-                        .get()
-                )
+                // a FirstOf over the block rules, trying only the ones that can start with the first char of the line
+                new BlockDispatchMatcher.Builder(!overridesRules())
+                        .plugins(plugins.getBlockPluginRules(), plugins.getBlockPluginTriggerChars())
+                        .unindented(">", BlockQuote())
+                        .indented(Verbatim())
+                        .nonindented("*", ext(ABBREVIATIONS) ? Abbreviation() : null)
+                        .nonindented("[", Reference())
+                        .nonindented("*-_", HorizontalRule())
+                        .anyLine(Heading()) // setext headings start with any char
+                        .nonindented("0123456789", OrderedList())
+                        .nonindented("+*-", BulletList())
+                        .unindented("<", HtmlBlock())
+                        .anyLine(ext(TABLES) ? Table() : null)
+                        .unindented(null, ext(DEFINITIONS) ? DefinitionList() : null)
+                        .unindented("~`", ext(FENCED_CODE_BLOCKS) ? FencedCodeBlock() : null)
+                        .anyLine(Para(), Inlines())
+                        .build()
         );
     }
 
@@ -161,7 +249,7 @@ public class Parser extends BaseParser<Object> implements Extensions {
 
                 // trigger a recursive parsing run on the inner source we just built
                 // and attach the root of the inner parses AST
-                push(new BlockQuoteNode(withIndicesShifted(parseInternal(inner), (Integer) peek()).getChildren()))
+                push(new BlockQuoteNode(parseInternal(inner, (Integer) peek()).getChildren()))
         );
     }
 
@@ -304,7 +392,7 @@ public class Parser extends BaseParser<Object> implements Extensions {
     }
 
     class AnchorNodeInfo {
-        public int startIndex = 0;
+        public int startIndex = -1; // not set yet, 0 is a valid index
         public int endIndex = 0;
         public StringBuilder text = new StringBuilder();
     }
@@ -347,7 +435,7 @@ public class Parser extends BaseParser<Object> implements Extensions {
             // accumulate all the text
             if (child.getClass() == TextNode.class || child.getClass() == SpecialTextNode.class) {
                 nodeInfo.text.append(((TextNode) child).getText());
-                if (nodeInfo.startIndex == 0) {
+                if (nodeInfo.startIndex < 0) {
                     nodeInfo.startIndex = child.getStartIndex();
                 }
                 nodeInfo.endIndex = child.getEndIndex();
@@ -656,21 +744,11 @@ public class Parser extends BaseParser<Object> implements Extensions {
 
     Node parseListBlock(StringBuilderVar block) {
         Context<Object> context = getContext();
-        Node innerRoot = parseInternal(block);
+        Node innerRoot = parseInternal(block, (Integer) context.getValueStack().peek());
         setContext(context); // we need to save and restore the context since we might be recursing
         block.clearContents();
-        //debugMsg("parsed list block " + innerRoot.toString() + " adjusting indices by " + getContext().getValueStack().peek(), block.getString());
-        return withIndicesShifted(innerRoot, (Integer) context.getValueStack().pop());
-    }
-
-    Node withIndicesShifted(Node node, int delta) {
-        if (delta != 0) {
-            ((AbstractNode) node).shiftIndices(delta);
-            for (Node subNode : node.getChildren()) {
-                withIndicesShifted(subNode, delta);
-            }
-        }
-        return node;
+        context.getValueStack().pop();
+        return innerRoot;
     }
 
     boolean fixFirstItem(SuperNode listNode) {
@@ -734,7 +812,7 @@ public class Parser extends BaseParser<Object> implements Extensions {
 
     @Cached
     public Rule HtmlTagBlock(StringVar tagName) {
-        return Sequence(
+        return Memoized(Sequence(
                 HtmlBlockOpen(tagName),
                 ZeroOrMore(
                         FirstOf(
@@ -743,7 +821,7 @@ public class Parser extends BaseParser<Object> implements Extensions {
                         )
                 ),
                 HtmlBlockClose(tagName)
-        );
+        ), tagName, '<');
     }
 
     public Rule HtmlBlockSelfClosing() {
@@ -831,25 +909,53 @@ public class Parser extends BaseParser<Object> implements Extensions {
     public Rule Inline() {
         return Sequence(
                 checkForParsingTimeout(),
-                FirstOf(Link(), NonLinkInline())
+                new CharDispatchMatcher.Builder(!overridesRules())
+                        .on(linkStartChars(), Link())
+                        .any(NonLinkInline())
+                        .build("InlineDispatch")
         );
     }
 
     public Rule NonAutoLinkInline() {
-        return FirstOf(NonAutoLink(), NonLinkInline());
+        return Sequence(
+                checkForParsingTimeout(),
+                new CharDispatchMatcher.Builder(!overridesRules())
+                        .on("[", NonAutoLink())
+                        .any(NonLinkInline())
+                        .build("InlineDispatch")
+        );
     }
 
     public Rule NonLinkInline() {
-        return FirstOf(new ArrayBuilder<Rule>()
-                .add(plugins.getInlinePluginRules())
-                .add(Str(), Endline(), UlOrStarLine(), Space(), StrongOrEmph(), Image(), Code(), InlineHtml(),
-                        Entity(), EscapedChar())
-                .addNonNulls(ext(QUOTES) ? new Rule[]{SingleQuoted(), DoubleQuoted(), DoubleAngleQuoted()} : null)
-                .addNonNulls(ext(SMARTS) ? new Rule[]{Smarts()} : null)
-                .addNonNulls(ext(STRIKETHROUGH) ? new Rule[]{Strike()} : null)
-                .add(Symbol())
-                .get()
-        );
+        // a FirstOf over the inline rules, trying only the ones that can start with the current char
+        return new CharDispatchMatcher.Builder(!overridesRules())
+                .plugins(plugins.getInlinePluginRules(), plugins.getInlinePluginTriggerChars())
+                .any(Str())
+                .on(" \t\n\r", Endline())
+                .on("_*~ \t", UlOrStarLine())
+                .on(" \t", Space())
+                .on("*_~", ext(DELIMITER_RUNS) ? DelimiterRun() : StrongOrEmph())
+                .on("!", Image())
+                .on("`", Code())
+                .on("<", InlineHtml())
+                .on("&", Entity())
+                .on("\\", EscapedChar())
+                .on("'", ext(QUOTES) ? SingleQuoted() : null)
+                .on("\"", ext(QUOTES) ? DoubleQuoted() : null)
+                .on("<", ext(QUOTES) ? DoubleAngleQuoted() : null)
+                .on(".-'", ext(SMARTS) ? Smarts() : null)
+                .on("~", ext(STRIKETHROUGH) && !ext(DELIMITER_RUNS) ? Strike() : null)
+                .on(specialChars(), Symbol())
+                .build("NonLinkInline");
+    }
+
+    /**
+     * @return the chars a {@link #Link()} can start with: the label of a link, the brackets of an autolink and,
+     *         with the {@link Extensions#AUTOLINKS} extension, the start of a bare url or email address
+     */
+    protected String linkStartChars() {
+        return ext(AUTOLINKS) ?
+                "[<-+_.0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ" : "[<";
     }
 
     @MemoMismatches
@@ -980,6 +1086,38 @@ public class Parser extends BaseParser<Object> implements Extensions {
         );
     }
     
+    /**
+     * Records a run of emphasis delimiters for the {@link DelimiterRunResolver}, see {@link Extensions#DELIMITER_RUNS}.
+     */
+    public Rule DelimiterRun() {
+        return NodeSequence(
+                FirstOf(OneOrMore('*'), OneOrMore('_'), ext(STRIKETHROUGH) ? OneOrMore('~') : NOTHING),
+                push(newDelimiterRunNode(match(), matchStart(), matchEnd()))
+        );
+    }
+
+    protected DelimiterRunNode newDelimiterRunNode(String run, int start, int end) {
+        InputBuffer input = getContext().getInputBuffer();
+        char next = input.charAt(end);
+        boolean minLength = run.length() >= 2 || run.charAt(0) != '~';
+        boolean canOpen = minLength && !Character.isWhitespace(next) && next != Chars.EOI &&
+                isDelimiterRunStartPos(start);
+        boolean canClose = minLength && start > 0 && !Character.isWhitespace(input.charAt(start - 1)) &&
+                (run.length() >= 2 || !Character.isLetterOrDigit(next));
+        return new DelimiterRunNode(run, canOpen, canClose);
+    }
+
+    // like isLegalEmphOrStrongStartPos() without walking down the last children, which the resolver builds later
+    protected boolean isDelimiterRunStartPos(int start) {
+        if (start == 0 || Character.isWhitespace(getContext().getInputBuffer().charAt(start - 1))) return true;
+        Object parent = peek(1);
+        if (!(parent instanceof SuperNode)) return false;
+        List<Node> children = ((SuperNode) parent).getChildren();
+        if (children.isEmpty()) return true;
+        Node last = children.get(children.size() - 1);
+        return last instanceof SimpleNode || last instanceof DelimiterRunNode && ((DelimiterRunNode) last).canOpen;
+    }
+
     /**
      * This method checks if the parser can enter an emph or strong sequence
      * Emph only allows Strong as direct child, Strong only allows Emph as 
@@ -1130,7 +1268,7 @@ public class Parser extends BaseParser<Object> implements Extensions {
     @Cached
     public Rule ExplicitLink(boolean image) {
         return Sequence(
-                Spn1(), '(', Sp(),
+                Spn1(), '(', hasCloserAhead(')'), Sp(),
                 LinkSource(),
                 Spn1(), FirstOf(LinkTitle(), push("")),
                 Sp(), ')',
@@ -1242,23 +1380,39 @@ public class Parser extends BaseParser<Object> implements Extensions {
 
     // can't treat labels the same as the image alt since the image alt should be able to empty.
     public Rule ImageAlt(){
-        return Sequence(
+        return Memoized(Sequence(
                 '[',
+                hasCloserAhead(']'),
                 checkForParsingTimeout(),
                 push(new SuperNode()),
                 ZeroOrMore(TestNot(']'), NonAutoLinkInline(), addAsChild()),
                 ']'
-        );
+        ), null, '[');
     }
 
     public Rule Label() {
-        return Sequence(
+        return Memoized(Sequence(
                 '[',
+                hasCloserAhead(']'),
                 checkForParsingTimeout(),
                 push(new SuperNode()),
                 OneOrMore(TestNot(']'), NonAutoLinkInline(), addAsChild()),
                 ']'
-        );
+        ), null, '[');
+    }
+
+    /**
+     * Checks whether the given closing delimiter occurs between the current position and the end of the inline
+     * content, so that the rules for links and quotes don't parse content that can never be closed.
+     *
+     * @param closer one of ']', ')', '"' and '\''
+     * @return false if the construct starting before the current position cannot be closed
+     */
+    public boolean hasCloserAhead(char closer) {
+        InputBuffer input = getContext().getInputBuffer();
+        DelimiterIndex index = input instanceof AbstractInputBuffer ?
+                ((AbstractInputBuffer) input).getDelimiterIndex() : session.delimiterIndex(input);
+        return index.hasCloserAhead(closer, currentIndex(), plugins.getInlinePluginRules().length == 0);
     }
 
     // here we exclude the EOL at the end from the node's text range
@@ -1279,7 +1433,7 @@ public class Parser extends BaseParser<Object> implements Extensions {
 
                 // make range not include  the EOL
                 Test(Newline()),
-                references.add(ref.get())
+                session.references.add(ref.get())
         );
     }
 
@@ -1413,7 +1567,15 @@ public class Parser extends BaseParser<Object> implements Extensions {
     //************* BASICS ****************
 
     public Rule Str() {
-        return NodeSequence(OneOrMore(NormalChar()), push(new TextNode(match())));
+        return NodeSequence(NormalChars(), push(new TextNode(match())));
+    }
+
+    /**
+     * Matches a run of {@link #NormalChar()}s in one go, using a lookup table built from {@link #specialChars()}.
+     * If a subclass overrides any rule (or {@link #specialChars()}) the run is matched by {@link #NormalChar()}s.
+     */
+    public Rule NormalChars() {
+        return overridesRules() ? OneOrMore(NormalChar()) : new NormalCharsMatcher(specialChars());
     }
 
     public Rule Space() {
@@ -1453,6 +1615,10 @@ public class Parser extends BaseParser<Object> implements Extensions {
     }
 
     public Rule SpecialChar() {
+        return AnyOf(specialChars());
+    }
+
+    protected String specialChars() {
         String chars = "*_`&[]<>!#\\";
         if (ext(QUOTES)) {
             chars += "'\"";
@@ -1479,7 +1645,7 @@ public class Parser extends BaseParser<Object> implements Extensions {
                 chars += ch;
             }
         }
-        return AnyOf(chars);
+        return chars;
     }
 
     // make these as per john grubber's original list + <>& + selected extensions
@@ -1549,7 +1715,7 @@ public class Parser extends BaseParser<Object> implements Extensions {
         return NodeSequence(
                 NonindentSpace(), '*', Label(), push(node.setAndGet(new AbbreviationNode(popAsNode()))),
                 Sp(), ':', Sp(), AbbreviationText(node),
-                abbreviations.add(node.get())
+                session.abbreviations.add(node.get())
         );
     }
 
@@ -1692,6 +1858,7 @@ public class Parser extends BaseParser<Object> implements Extensions {
         return NodeSequence(
                 !Character.isLetter(getContext().getInputBuffer().charAt(getContext().getCurrentIndex() - 1)),
                 '\'',
+                hasCloserAhead('\''),
                 push(new QuotedNode(QuotedNode.Type.Single)),
                 OneOrMore(TestNot(SingleQuoteEnd()), Inline(), addAsChild()),
                 SingleQuoteEnd()
@@ -1703,12 +1870,13 @@ public class Parser extends BaseParser<Object> implements Extensions {
     }
 
     public Rule DoubleQuoted() {
-        return NodeSequence(
+        return Memoized(NodeSequence(
                 '"',
+                hasCloserAhead('"'),
                 push(new QuotedNode(QuotedNode.Type.Double)),
                 OneOrMore(TestNot('"'), Inline(), addAsChild()),
                 '"'
-        );
+        ), null, '"');
     }
 
     public Rule DoubleAngleQuoted() {
@@ -1733,6 +1901,19 @@ public class Parser extends BaseParser<Object> implements Extensions {
         return Sequence(repeat(c, n), ZeroOrMore(c));
     }
     
+    /**
+     * Memoizes the complete results of the given rule in packrat fashion if the {@link ParsingBudget} of this parser
+     * enables it, see {@link PackratMatcher}.
+     *
+     * @param rule the rule, which must only push its result node
+     * @param key the Var the result of the rule also depends on, or null
+     * @param starterChar the first char of every match of the rule
+     * @return the memoizing rule or the given rule
+     */
+    public Rule Memoized(Rule rule, Var<?> key, char starterChar) {
+        return budget.getMaxMemoEntries() > 0 ? new PackratMatcher(rule, this, key, starterChar) : rule;
+    }
+
     public Rule NodeSequence(Object... nodeRules) {
         return Sequence(
                 push(getContext().getCurrentIndex()),
@@ -1742,9 +1923,11 @@ public class Parser extends BaseParser<Object> implements Extensions {
     }
     
     public boolean setIndices() {
+        // the indices of inner parses are mapped back to the original source right away
+        InputBuffer input = getContext().getInputBuffer();
         AbstractNode node = (AbstractNode) peek();
-        node.setStartIndex((Integer)pop(1));
-        node.setEndIndex(currentIndex());
+        node.setStartIndex(input.getOriginalIndex((Integer) pop(1)));
+        node.setEndIndex(input.getOriginalIndex(currentIndex()));
         return true;
     }
     
@@ -1779,42 +1962,44 @@ public class Parser extends BaseParser<Object> implements Extensions {
         return (options & extension) > 0;
     }
     
-    // called for inner parses for list items and blockquotes
-    public RootNode parseInternal(StringBuilderVar block) {
-        char[] chars = block.getChars();
-        int[] ixMap = new int[chars.length + 1]; // map of cleaned indices to original indices
-        
-        // strip out CROSSED_OUT characters and build index map
-        StringBuilder clean = new StringBuilder();
-        for (int i = 0; i < chars.length; i++) {
-            char c = chars[i];
-            if (c != CROSSED_OUT) {
-                ixMap[clean.length()] = i;
-                clean.append(c);
-            }
+    // called for inner parses for list items and blockquotes, the block holds the source from the given index
+    // of the current input on, with all chars not to be parsed replaced by CROSSED_OUT
+    public RootNode parseInternal(StringBuilderVar block, int blockStart) {
+        if (session == null) {
+            return parseInternal(new BlockInputBuffer(block.get(), getContext().getInputBuffer(), blockStart));
+        }
+        int maxNestingDepth = session.limits.getMaxNestingDepth();
+        if (maxNestingDepth > 0 && session.nestingDepth >= maxNestingDepth) {
+            session.limits.exceeded(ResourceLimits.Limit.NESTING_DEPTH);
+            return plainTextRoot(block.get());
+        }
+        session.nestingDepth++;
+        session.startInnerParse();
+        try {
+            return parseInternal(new BlockInputBuffer(block.get(), getContext().getInputBuffer(), blockStart));
+        } finally {
+            session.nestingDepth--;
         }
-        ixMap[clean.length()] = chars.length;
-        
-        // run inner parse
-        char[] cleaned = new char[clean.length()];
-        clean.getChars(0, cleaned.length, cleaned, 0);
-        RootNode rootNode = parseInternal(cleaned);
-        
-        // correct AST indices with index map
-        fixIndices(rootNode, ixMap);
-        
-        return rootNode;
     }
 
-    protected void fixIndices(Node node, int[] ixMap) {
-        ((AbstractNode) node).mapIndices(ixMap);
-        for (Node subNode : node.getChildren()) {
-            fixIndices(subNode, ixMap);
+    // the degraded result of an inner parse nested too deeply: its source as a single plain paragraph
+    private static RootNode plainTextRoot(StringBuilder block) {
+        StringBuilder text = new StringBuilder(block.length());
+        for (int i = 0; i < block.length(); i++) {
+            char c = block.charAt(i);
+            if (c != CROSSED_OUT) text.append(c);
         }
+        RootNode root = new RootNode();
+        root.getChildren().add(new ParaNode(new TextNode(text.toString().trim())));
+        return root;
     }
 
     public RootNode parseInternal(char[] source) {
-        ParsingResult<Node> result = parseToParsingResult(source);
+        return parseInternal(new DefaultInputBuffer(source));
+    }
+
+    public RootNode parseInternal(InputBuffer input) {
+        ParsingResult<Node> result = parseToParsingResult(input);
         if (result.hasErrors()) {
             throw new RuntimeException("Internal error during markdown parsing:\n--- ParseErrors ---\n" +
                     printParseErrors(result)/* +
@@ -1826,13 +2011,55 @@ public class Parser extends BaseParser<Object> implements Extensions {
     }
     
     ParsingResult<Node> parseToParsingResult(char[] source) {
-        parsingStartTimeStamp = System.currentTimeMillis();
-        return parseRunnerProvider.get(Root()).run(source);
+        return parseToParsingResult(new DefaultInputBuffer(source));
+    }
+
+    ParsingResult<Node> parseToParsingResult(InputBuffer input) {
+        if (session != null) {
+            session.start(budget);
+            return parseRunnerProvider.get(Root()).run(input);
+        }
+        // parseInternal was called directly, so the parse gets a session of its own
+        session = new ParsingSession();
+        try {
+            session.start(budget);
+            return parseRunnerProvider.get(Root()).run(input);
+        } finally {
+            session.finish();
+            session = null;
+        }
+    }
+
+    // whether a subclass overrides any method of this class, the parboiled extension of a parser class aside:
+    // the tables the block and inline rules are dispatched by are derived from the rules of this class, so a parser
+    // overriding any of them has to try all alternatives in order instead
+    boolean overridesRules() {
+        for (Class<?> c = getClass(); c != Parser.class; c = c.getSuperclass()) {
+            if (c.getName().endsWith("$$parboiled")) continue;
+            for (Method method : c.getDeclaredMethods()) {
+                int modifiers = method.getModifiers();
+                if (method.isSynthetic() || Modifier.isStatic(modifiers) || Modifier.isPrivate(modifiers)) continue;
+                try {
+                    Parser.class.getDeclaredMethod(method.getName(), method.getParameterTypes());
+                    return true;
+                } catch (NoSuchMethodException e) {
+                    // a method of the subclass only
+                }
+            }
+        }
+        return false;
     }
 
+    // passed at nearly every inline position, so it only counts down and checks flags,
+    // the interrupted status of the thread is left set for the code that interrupted it
     protected boolean checkForParsingTimeout() {
-        if (System.currentTimeMillis() - parsingStartTimeStamp > maxParsingTimeInMillis)
+        ParsingSession session = this.session;
+        if (session.cancelled || Thread.currentThread().isInterrupted())
+            throw new ParsingCancelledException();
+        if (session.deadline.passed)
             throw new ParsingTimeoutException();
+        if (session.checkpointsLeft-- <= 0 && !session.takeCheckpoint())
+            throw new ParsingBudgetExceededException();
         return true;
     }
 
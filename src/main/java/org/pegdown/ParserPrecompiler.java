@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Build-time tool that runs the parboiled parser class transformation ahead of time and writes the extended
+ * parser class (`Parser$$parboiled`) together with all its generated action and var-init classes into a class
+ * output directory. When these classes are packaged with pegdown the {@link PegDownProcessor} loads them directly
+ * and parboiled no longer needs to weave the parser bytecode at runtime.
+ *
+ * Usage: {@code java org.pegdown.ParserPrecompiler <classes dir> [parser class name...]}
+ *
+ * This class needs to run in a fresh JVM, since parboiled only generates the code of classes that are not
+ * loaded yet. It relies on the internals of parboiled-java's transformation package, which are accessed
+ * reflectively, so it needs to be revisited whenever the parboiled dependency is upgraded.
+ */
+public class ParserPrecompiler {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: ParserPrecompiler <classes dir> [parser class name...]");
+            System.exit(1);
+        }
+        File outputDir = new File(args[0]);
+        if (args.length == 1) {
+            precompile(Parser.class, outputDir);
+        } else {
+            for (int i = 1; i < args.length; i++) {
+                precompile(Class.forName(args[i]), outputDir);
+            }
+        }
+    }
+
+    /**
+     * Generates the parboiled extension of the given parser class and writes all generated classes into the
+     * given output directory.
+     *
+     * @param parserClass the parser class to transform
+     * @param outputDir the root directory of the class output
+     * @return the number of class files written
+     */
+    @SuppressWarnings("unchecked")
+    public static int precompile(Class<?> parserClass, File outputDir) throws Exception {
+        Class<?> transformer = Class.forName("org.parboiled.transform.ParserTransformer");
+        Object classNode = invoke(transformer, null, "extendParserClass", parserClass);
+
+        int count = 0;
+        writeClass(outputDir, (String) invoke(classNode, "name"), (byte[]) invoke(classNode, "getClassCode"));
+        count++;
+
+        Map<String, Object> ruleMethods = (Map<String, Object>) invoke(classNode, "getRuleMethods");
+        for (Object ruleMethod : ruleMethods.values()) {
+            for (Object group : (List<Object>) invoke(ruleMethod, "getGroups")) {
+                byte[] code = (byte[]) invoke(group, "getGroupClassCode");
+                if (code == null) continue; // the group class has already been loaded by someone else
+                Object type = invoke(group, "getGroupClassType");
+                writeClass(outputDir, (String) type.getClass().getMethod("getInternalName").invoke(type), code);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void writeClass(File outputDir, String internalName, byte[] code) throws IOException {
+        File file = new File(outputDir, internalName + ".class");
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create directory " + dir);
+        }
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(code);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static Object invoke(Object target, String name) throws Exception {
+        // `name` is a public field of ASM's ClassNode, everything else are no-arg accessor methods
+        if (name.equals("name")) return target.getClass().getField(name).get(target);
+        return invoke(target.getClass(), target, name);
+    }
+
+    private static Object invoke(Class<?> clazz, Object target, String name, Object... args) throws Exception {
+        for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+            for (Method method : c.getDeclaredMethods()) {
+                if (method.getName().equals(name) && method.getParameterTypes().length == args.length) {
+                    method.setAccessible(true);
+                    return method.invoke(target, args);
+                }
+            }
+        }
+        throw new NoSuchMethodException(clazz.getName() + '.' + name);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown;
+
+import static org.parboiled.common.Preconditions.checkArgument;
+
+/**
+ * Limits the work the parser may spend on a single document.
+ * The parser passes a checkpoint at every inline position it tries, including the ones in link labels and image
+ * alt texts, so the maximum number of checkpoints bounds the parsing effort independently of the machine and its
+ * load: a document either always fits into such a budget or never does. On top of that a budget can carry a
+ * parsing timeout, which is not checked against the clock at every checkpoint but flagged by a watchdog thread
+ * once it has elapsed, so it is only as precise as the scheduling of that thread.
+ * A document exceeding its checkpoints makes the parsing methods of the {@link PegDownProcessor} throw a
+ * {@link ParsingBudgetExceededException}, one exceeding its timeout a {@link ParsingTimeoutException}; the methods
+ * returning the HTML as a String return null in both cases.
+ * Finally a budget can trade memory for time by letting the parser memoize the results of the rules prone to
+ * compounding backtracking (packrat parsing), so that it evaluates each of them at most once per input position.
+ * Instances are immutable.
+ */
+public final class ParsingBudget {
+    public static final ParsingBudget UNLIMITED = new ParsingBudget(0L, 0L, 0);
+
+    private final long maxCheckpoints;
+    private final long maxParsingTimeInMillis;
+    private final int maxMemoEntries;
+
+    private ParsingBudget(long maxCheckpoints, long maxParsingTimeInMillis, int maxMemoEntries) {
+        this.maxCheckpoints = maxCheckpoints;
+        this.maxParsingTimeInMillis = maxParsingTimeInMillis;
+        this.maxMemoEntries = maxMemoEntries;
+    }
+
+    /**
+     * @param maxCheckpoints the maximum number of checkpoints the parser may pass per document
+     * @return a budget limiting the checkpoints only
+     */
+    public static ParsingBudget checkpoints(long maxCheckpoints) {
+        return UNLIMITED.withMaxCheckpoints(maxCheckpoints);
+    }
+
+    /**
+     * @param maxParsingTimeInMillis the parsing timeout
+     * @return a budget limiting the parsing time only
+     */
+    public static ParsingBudget timeout(long maxParsingTimeInMillis) {
+        return UNLIMITED.withMaxParsingTimeInMillis(maxParsingTimeInMillis);
+    }
+
+    /**
+     * @param maxCheckpoints the maximum number of checkpoints the parser may pass per document, 0 for no limit
+     * @return a copy of this budget with the given checkpoint limit
+     */
+    public ParsingBudget withMaxCheckpoints(long maxCheckpoints) {
+        checkArgument(maxCheckpoints >= 0, "maxCheckpoints must not be negative");
+        return new ParsingBudget(maxCheckpoints, maxParsingTimeInMillis, maxMemoEntries);
+    }
+
+    /**
+     * @param maxParsingTimeInMillis the parsing timeout, 0 for no timeout
+     * @return a copy of this budget with the given parsing timeout
+     */
+    public ParsingBudget withMaxParsingTimeInMillis(long maxParsingTimeInMillis) {
+        checkArgument(maxParsingTimeInMillis >= 0, "maxParsingTimeInMillis must not be negative");
+        return new ParsingBudget(maxCheckpoints, maxParsingTimeInMillis, maxMemoEntries);
+    }
+
+    /**
+     * Enables packrat parsing with a memo table of the given size. Whenever the table is full it is cleared, so
+     * the memory used per document stays bounded.
+     *
+     * @param maxMemoEntries the maximum number of rule results memoized per document, 0 to disable packrat parsing
+     * @return a copy of this budget with the given memo table size
+     */
+    public ParsingBudget withMaxMemoEntries(int maxMemoEntries) {
+        checkArgument(maxMemoEntries >= 0, "maxMemoEntries must not be negative");
+        return new ParsingBudget(maxCheckpoints, maxParsingTimeInMillis, maxMemoEntries);
+    }
+
+    /**
+     * @return the maximum number of checkpoints the parser may pass per document, 0 for no limit
+     */
+    public long getMaxCheckpoints() {
+        return maxCheckpoints;
+    }
+
+    /**
+     * @return the parsing timeout, 0 for no timeout
+     */
+    public long getMaxParsingTimeInMillis() {
+        return maxParsingTimeInMillis;
+    }
+
+    /**
+     * @return the maximum number of rule results memoized per document, 0 if packrat parsing is disabled
+     */
+    public int getMaxMemoEntries() {
+        return maxMemoEntries;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ParsingBudget)) return false;
+        ParsingBudget that = (ParsingBudget) o;
+        return maxCheckpoints == that.maxCheckpoints && maxParsingTimeInMillis == that.maxParsingTimeInMillis &&
+                maxMemoEntries == that.maxMemoEntries;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (maxCheckpoints ^ (maxCheckpoints >>> 32));
+        result = 31 * result + (int) (maxParsingTimeInMillis ^ (maxParsingTimeInMillis >>> 32));
+        return 31 * result + maxMemoEntries;
+    }
+
+    @Override
+    public String toString() {
+        return "ParsingBudget(maxCheckpoints=" + maxCheckpoints + ", maxParsingTimeInMillis=" + maxParsingTimeInMillis +
+                ", maxMemoEntries=" + maxMemoEntries + ')';
+    }
+}
@@ -0,0 +1,7 @@
+package org.pegdown;
+
+/**
+ * Thrown by the parser when a document has used up the checkpoints granted by its {@link ParsingBudget}.
+ * It extends {@link ParsingTimeoutException} so that all code handling aborted parses treats both alike.
+ */
+public class ParsingBudgetExceededException extends ParsingTimeoutException {}
@@ -0,0 +1,7 @@
+package org.pegdown;
+
+/**
+ * Thrown by the parser when the {@link ParsingSession} it runs in has been cancelled.
+ * It extends {@link ParsingTimeoutException} so that all code handling aborted parses treats both alike.
+ */
+public class ParsingCancelledException extends ParsingTimeoutException {}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown;
+
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The parsing timeout and checkpoint budget of a document, shared by all {@link ParsingSession}s the document is
+ * parsed in (e.g. the chunks of a parallel or the blocks of a streaming conversion). The timeout starts running when
+ * the first of these sessions starts parsing and is flagged as passed by the {@link ParsingWatchdog} once it has
+ * elapsed. It can be paused while the document is not being parsed, e.g. while a streaming conversion waits for
+ * its input.
+ */
+final class ParsingDeadline {
+    volatile boolean passed;
+    private final AtomicLong checkpointsLeft = new AtomicLong();
+    private boolean armed;
+    private boolean paused;
+    private boolean timed; // false if there is no timeout
+    private long remainingMillis;
+    private long resumedAtNanos;
+    private TimerTask watchdogTask;
+
+    synchronized void arm(ParsingBudget budget) {
+        if (armed) return;
+        armed = true;
+        checkpointsLeft.set(budget.getMaxCheckpoints());
+        long timeoutInMillis = budget.getMaxParsingTimeInMillis();
+        // timeouts too long for the watchdog to schedule can never elapse anyway
+        if (timeoutInMillis > 0 && timeoutInMillis < Long.MAX_VALUE / 2) {
+            timed = true;
+            remainingMillis = timeoutInMillis;
+            if (!paused) watch();
+        }
+    }
+
+    // takes one of the checkpoints of the document, for the sessions parsing a part of it
+    boolean takeCheckpoint() {
+        return checkpointsLeft.getAndDecrement() > 0;
+    }
+
+    /**
+     * Stops the timeout from running until {@link #resume()} is called.
+     */
+    synchronized void pause() {
+        if (paused) return;
+        paused = true;
+        if (watchdogTask != null) {
+            unwatch();
+            remainingMillis -= (System.nanoTime() - resumedAtNanos) / 1000000;
+        }
+    }
+
+    synchronized void resume() {
+        if (!paused) return;
+        paused = false;
+        if (timed && !passed) watch();
+    }
+
+    synchronized void disarm() {
+        if (watchdogTask != null) unwatch();
+        timed = false;
+    }
+
+    private void watch() {
+        if (remainingMillis <= 0) {
+            passed = true;
+        } else {
+            resumedAtNanos = System.nanoTime();
+            watchdogTask = ParsingWatchdog.watch(this, remainingMillis);
+        }
+    }
+
+    private void unwatch() {
+        ParsingWatchdog.unwatch(watchdogTask);
+        watchdogTask = null;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown;
+
+import org.parboiled.buffers.InputBuffer;
+import org.pegdown.ast.AbbreviationNode;
+import org.pegdown.ast.ReferenceNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Holds all mutable state of a single parsing run of a {@link Parser}, i.e. everything that is collected or
+ * checked while a document (including all the recursive inner parses of its list items and block quotes) is
+ * being parsed. The parser itself only keeps its configuration and rule graph, a new session is created for
+ * every call to {@link Parser#parse(char[])}.
+ */
+public class ParsingSession {
+    final List<AbbreviationNode> abbreviations = new ArrayList<AbbreviationNode>();
+    final List<ReferenceNode> references = new ArrayList<ReferenceNode>();
+    final ParsingDeadline deadline;
+    ResourceLimits limits = ResourceLimits.UNLIMITED;
+    long checkpointsLeft;
+    int nestingDepth;
+    private long committedNodes; // the nodes of the blocks the root of the document has taken
+    private long[] innerNodes = new long[8]; // the nodes of the blocks taken by the inner parses in progress, by depth
+    volatile boolean cancelled;
+    private final boolean ownsDeadline;
+    private boolean started;
+    private PackratMemo packratMemo;
+    private InputBuffer indexedInput;
+    private DelimiterIndex delimiterIndex;
+
+    /**
+     * Creates a session for parsing a complete document.
+     */
+    public ParsingSession() {
+        this(new ParsingDeadline(), true);
+    }
+
+    // creates a session for parsing a part of a document, which runs against the deadline of the whole document
+    ParsingSession(ParsingDeadline deadline) {
+        this(deadline, false);
+    }
+
+    private ParsingSession(ParsingDeadline deadline, boolean ownsDeadline) {
+        this.deadline = deadline;
+        this.ownsDeadline = ownsDeadline;
+    }
+
+    /**
+     * @return the abbreviation definitions collected so far
+     */
+    public List<AbbreviationNode> getAbbreviations() {
+        return abbreviations;
+    }
+
+    /**
+     * @return the reference definitions collected so far
+     */
+    public List<ReferenceNode> getReferences() {
+        return references;
+    }
+
+    /**
+     * Requests the cancellation of the parse running in this session. The parser stops with a
+     * {@link ParsingCancelledException} at its next timeout checkpoint, just like it does when the thread running
+     * it is interrupted. May be called from any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return true if the cancellation of this session has been requested
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    // called at the start of every (inner) parse, the budget covers the whole document
+    void start(ParsingBudget budget) {
+        if (started) return;
+        started = true;
+        long maxCheckpoints = budget.getMaxCheckpoints();
+        // a session parsing a part of a document takes its checkpoints one by one from the document's budget,
+        // see takeCheckpoint()
+        checkpointsLeft = maxCheckpoints <= 0 ? Long.MAX_VALUE : ownsDeadline ? maxCheckpoints : 0;
+        deadline.arm(budget);
+    }
+
+    // called once the checkpoints of this session are used up
+    boolean takeCheckpoint() {
+        return !ownsDeadline && deadline.takeCheckpoint();
+    }
+
+    // called at the start of every inner parse, whose root starts without any blocks
+    void startInnerParse() {
+        clearInnerNodes(nestingDepth);
+    }
+
+    // the number of nodes a block added at the current nesting depth may still have, the inner parses it contains
+    // are part of it
+    long nodesLeft(long maxNodeCount) {
+        long left = maxNodeCount - committedNodes;
+        for (int depth = 1; depth <= nestingDepth && depth < innerNodes.length; depth++) left -= innerNodes[depth];
+        return left;
+    }
+
+    // called once the root at the current nesting depth has taken a block with the given number of nodes
+    void addNodes(long count) {
+        if (nestingDepth == 0) {
+            committedNodes += count;
+        } else {
+            if (nestingDepth >= innerNodes.length) innerNodes = Arrays.copyOf(innerNodes, nestingDepth * 2);
+            innerNodes[nestingDepth] += count;
+        }
+        clearInnerNodes(nestingDepth + 1);
+    }
+
+    private void clearInnerNodes(int fromDepth) {
+        for (int depth = fromDepth; depth < innerNodes.length; depth++) innerNodes[depth] = 0;
+    }
+
+    // the memo table of the PackratMatchers, shared by all inner parses of the document
+    PackratMemo packratMemo(int maxEntries) {
+        if (packratMemo == null) packratMemo = new PackratMemo(maxEntries);
+        return packratMemo;
+    }
+
+    // the delimiter index of an input that doesn't keep one itself, e.g. parboiled's DefaultInputBuffer
+    DelimiterIndex delimiterIndex(InputBuffer input) {
+        if (input != indexedInput) {
+            delimiterIndex = new DelimiterIndex(input);
+            indexedInput = input;
+        }
+        return delimiterIndex;
+    }
+
+    void finish() {
+        if (ownsDeadline) deadline.disarm();
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown;
+
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Flags the {@link ParsingDeadline}s that have elapsed, from a single daemon thread shared by all parsers, so that
+ * the parser only has to check a flag instead of reading the clock.
+ */
+final class ParsingWatchdog {
+    private static final Timer timer = new Timer("pegdown-parsing-watchdog", true);
+    private static final AtomicInteger cancellations = new AtomicInteger();
+
+    private ParsingWatchdog() {}
+
+    /**
+     * @param deadline the deadline to flag
+     * @param timeoutInMillis the time after which to flag the deadline
+     * @return the task to pass to {@link #unwatch(TimerTask)} once the document is parsed
+     */
+    static TimerTask watch(final ParsingDeadline deadline, long timeoutInMillis) {
+        TimerTask task = new TimerTask() {
+            public void run() {
+                deadline.passed = true;
+            }
+        };
+        timer.schedule(task, timeoutInMillis);
+        return task;
+    }
+
+    static void unwatch(TimerTask task) {
+        // the timer only drops cancelled tasks when they are due, so we clear them out from time to time
+        if (task.cancel() && (cancellations.incrementAndGet() & 1023) == 0) timer.purge();
+    }
+}
@@ -18,27 +18,99 @@
 
 package org.pegdown;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.parboiled.Parboiled;
+import org.parboiled.buffers.DefaultInputBuffer;
+import org.parboiled.buffers.InputBuffer;
+import org.parboiled.common.ImmutableList;
+import org.parboiled.errors.ParserRuntimeException;
+import org.pegdown.ast.AbbreviationNode;
+import org.pegdown.ast.AbstractNode;
+import org.pegdown.ast.Node;
+import org.pegdown.ast.ReferenceNode;
 import org.pegdown.ast.RootNode;
 import org.pegdown.plugins.PegDownPlugins;
 import org.pegdown.plugins.ToHtmlSerializerPlugin;
 
+import static org.parboiled.common.Preconditions.checkArgNotNull;
+import static org.parboiled.common.Preconditions.checkArgument;
+
 /**
  * A clean and lightweight Markdown-to-HTML filter based on a PEG parser implemented with parboiled.
- * Note: A PegDownProcessor is not thread-safe (since it internally reused the parboiled parser instance).
- * If you need to process markdown source in parallel create one PegDownProcessor per thread!
+ * A PegDownProcessor is thread-safe: all per-document state lives in a {@link ParsingSession} and every
+ * concurrent call runs on its own parser instance, taken from a free list of idle parsers of the same
+ * configuration. The parboiled parser class is only generated once per JVM, so the list only grows to the
+ * number of documents that are actually parsed at the same time, no matter how many threads use the processor.
+ * If the processor was created with a custom {@link Parser} subclass that cannot be replicated, concurrent calls
+ * are serialized on that single parser instead.
  *
  * @see <a href="http://daringfireball.net/projects/markdown/">Markdown</a>
  * @see <a href="http://www.parboiled.org/">parboiled.org</a>
  */
 public class PegDownProcessor {
     public static final long DEFAULT_MAX_PARSING_TIME = 2000;
+    public static final int DEFAULT_MIN_CHUNK_SIZE = 64 * 1024;
+    private static final int MIN_READ_AHEAD = 8 * 1024;
+
+    static {
+        loadPrecompiledParserClass();
+    }
 
+    /**
+     * The parser this processor was created with. The processor itself only parses with exclusive replicas of it
+     * (or with this instance under a lock), but a parser keeps the state of its actions in its rule graph, so
+     * this instance must not be used directly by more than one thread at a time.
+     */
     public final Parser parser;
+    private final ResourceLimits resourceLimits;
+
+    private final Queue<Parser> idleParsers = new ConcurrentLinkedQueue<Parser>();
+    private final Lock parserLock; // only used if the parser cannot be replicated
+
+    /**
+     * Loads the parboiled extension of the {@link Parser} class that was generated at build time by the
+     * {@link ParserPrecompiler}, if it is available on the classpath. Since parboiled reuses an already loaded
+     * extension class it then skips the bytecode generation on the first {@link Parboiled#createParser} call.
+     *
+     * @return true if the precompiled parser class was loaded
+     */
+    static boolean loadPrecompiledParserClass() {
+        try {
+            Class.forName(Parser.class.getName() + "$$parboiled", false, Parser.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false; // not precompiled, parboiled will generate the class at runtime
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
 
     /**
      * Creates a new processor instance without any enabled extensions and the default parsing timeout.
@@ -94,45 +166,113 @@ public class PegDownProcessor {
         this(Parboiled.createParser(Parser.class, options, maxParsingTimeInMillis, Parser.DefaultParseRunnerProvider, plugins));
     }
 
+    /**
+     * Creates a new processor instance with the given {@link org.pegdown.Extensions}, {@link ParsingBudget} and
+     * plugins. If a document exceeds the budget the methods returning null on a parsing timeout return null as well.
+     *
+     * @param options the flags of the extensions to enable as a bitmask
+     * @param budget the limits of the parsing effort per document
+     * @param plugins the plugins to use
+     */
+    public PegDownProcessor(int options, ParsingBudget budget, PegDownPlugins plugins) {
+        this(options, budget, ResourceLimits.UNLIMITED, plugins);
+    }
+
+    /**
+     * Creates a new processor instance with the given {@link org.pegdown.Extensions}, {@link ParsingBudget},
+     * {@link ResourceLimits} and plugins.
+     *
+     * @param options the flags of the extensions to enable as a bitmask
+     * @param budget the limits of the parsing effort per document
+     * @param resourceLimits the limits of the stack and heap usage per document
+     * @param plugins the plugins to use
+     */
+    public PegDownProcessor(int options, ParsingBudget budget, ResourceLimits resourceLimits, PegDownPlugins plugins) {
+        this(Parboiled.createParser(Parser.class, options, checkArgNotNull(budget, "budget"),
+                Parser.DefaultParseRunnerProvider, plugins), resourceLimits);
+    }
+
     /**
      * Creates a new processor instance using the given Parser.
      *
      * @param parser the parser instance to use
      */
     public PegDownProcessor(Parser parser) {
+        this(parser, ResourceLimits.UNLIMITED);
+    }
+
+    /**
+     * Creates a new processor instance using the given Parser and {@link ResourceLimits}.
+     *
+     * @param parser the parser instance to use
+     * @param resourceLimits the limits of the stack and heap usage per document
+     */
+    public PegDownProcessor(Parser parser, ResourceLimits resourceLimits) {
         this.parser = parser;
+        this.resourceLimits = checkArgNotNull(resourceLimits, "resourceLimits");
+        this.parserLock = isReplicable(parser) ? null : new ReentrantLock();
+        idleParsers.add(parser);
     }
 
     /**
      * Converts the given markdown source to HTML.
-     * If the input cannot be parsed within the configured parsing timeout the method returns null.
+     * If the input cannot be parsed within the configured parsing timeout the method returns null,
+     * if the calling thread is interrupted it throws a ParsingCancelledException.
      *
      * @param markdownSource the markdown source to convert
      * @return the HTML
      */
     public String markdownToHtml(String markdownSource) {
-        return markdownToHtml(markdownSource.toCharArray());
+        return markdownToHtml(markdownSource, new LinkRenderer());
     }
 
     /**
      * Converts the given markdown source to HTML.
-     * If the input cannot be parsed within the configured parsing timeout the method returns null.
+     * If the input cannot be parsed within the configured parsing timeout the method returns null,
+     * if the calling thread is interrupted it throws a ParsingCancelledException.
      *
      * @param markdownSource the markdown source to convert
      * @param linkRenderer the LinkRenderer to use
      * @return the HTML
      */
     public String markdownToHtml(String markdownSource, LinkRenderer linkRenderer) {
-        return markdownToHtml(markdownSource.toCharArray(), linkRenderer);
+        return markdownToHtml(markdownSource, linkRenderer, Collections.<String, VerbatimSerializer>emptyMap());
     }
 
 	public String markdownToHtml(String markdownSource, LinkRenderer linkRenderer, Map<String, VerbatimSerializer> verbatimSerializerMap) {
-		return markdownToHtml(markdownSource.toCharArray(), linkRenderer, verbatimSerializerMap);
+		return markdownToHtml(markdownSource, linkRenderer, verbatimSerializerMap, parser.plugins.getHtmlSerializerPlugins());
 	}
 
+    /**
+     * Converts the given markdown source to HTML without copying it (see {@link MarkdownInputBuffer}).
+     * If the input cannot be parsed within the configured parsing timeout the method returns null,
+     * if the calling thread is interrupted it throws a ParsingCancelledException.
+     *
+     * @param markdownSource the markdown source to convert, e.g. a String or a CharBuffer wrapping a char[] slice
+     * @param linkRenderer the LinkRenderer to use
+     * @param verbatimSerializerMap the VerbatimSerializers to use
+     * @param plugins the ToHtmlSerializerPlugins to use
+     * @return the HTML
+     */
+    public String markdownToHtml(CharSequence markdownSource,
+                                 LinkRenderer linkRenderer,
+                                 Map<String, VerbatimSerializer> verbatimSerializerMap,
+                                 List<ToHtmlSerializerPlugin> plugins) {
+        try {
+            RootNode astRoot = parseMarkdown(markdownSource);
+            return new ToHtmlSerializer(linkRenderer, verbatimSerializerMap, plugins)
+                    .withResourceLimits(resourceLimits).toHtml(astRoot);
+        } catch(ParsingCancelledException e) {
+            throw e;
+        } catch(ParsingTimeoutException e) {
+            return null;
+        }
+    }
+
     /**
      * Converts the given markdown source to HTML.
-     * If the input cannot be parsed within the configured parsing timeout the method returns null.
+     * If the input cannot be parsed within the configured parsing timeout the method returns null,
+     * if the calling thread is interrupted it throws a ParsingCancelledException.
      *
      * @param markdownSource the markdown source to convert
      * @return the HTML
@@ -143,7 +283,8 @@ public class PegDownProcessor {
 
     /**
      * Converts the given markdown source to HTML.
-     * If the input cannot be parsed within the configured parsing timeout the method returns null.
+     * If the input cannot be parsed within the configured parsing timeout the method returns null,
+     * if the calling thread is interrupted it throws a ParsingCancelledException.
      *
      * @param markdownSource the markdown source to convert
      * @param linkRenderer the LinkRenderer to use
@@ -164,12 +305,204 @@ public class PegDownProcessor {
 			List<ToHtmlSerializerPlugin> plugins) {
 		try {
             RootNode astRoot = parseMarkdown(markdownSource);
-            return new ToHtmlSerializer(linkRenderer, verbatimSerializerMap, plugins).toHtml(astRoot);
+            return new ToHtmlSerializer(linkRenderer, verbatimSerializerMap, plugins)
+                    .withResourceLimits(resourceLimits).toHtml(astRoot);
+        } catch(ParsingCancelledException e) {
+            throw e;
         } catch(ParsingTimeoutException e) {
             return null;
         }
 	}
 
+    /**
+     * Converts the given markdown source to HTML and writes it to the given Appendable (e.g. a Writer) without
+     * building the complete HTML in memory first.
+     *
+     * @param markdownSource the markdown source to convert
+     * @param out the Appendable to write the HTML to
+     * @throws IOException if writing to the Appendable fails
+     * @throws ParsingTimeoutException if the input cannot be parsed within the configured parsing timeout
+     */
+    public void markdownToHtml(char[] markdownSource, Appendable out) throws IOException {
+        RootNode astRoot = parseMarkdown(markdownSource, new ParsingSession());
+        newSerializer().toHtml(astRoot, out);
+    }
+
+    /**
+     * Converts the markdown file {@code in} to HTML and writes it to the file {@code out}, both in the given charset.
+     * The input file is memory-mapped rather than read into the heap (see {@link MappedSource}) and the HTML is
+     * written through a small buffer, so even large files need little heap and repeated runs over the same files
+     * are served from the page cache of the operating system.
+     *
+     * @param in the markdown file to convert
+     * @param out the file to write the HTML to
+     * @param charset the charset of both files
+     * @throws IOException if reading or writing fails
+     * @throws ParsingTimeoutException if the input cannot be parsed within the configured parsing timeout
+     */
+    public void renderFile(File in, File out, Charset charset) throws IOException {
+        RootNode astRoot = parsePrepared(new MarkdownInputBuffer(MappedSource.map(in, charset)),
+                new ParsingSession());
+        Writer writer = new OutputStreamWriter(new FileOutputStream(out), charset);
+        try {
+            newSerializer().toHtml(astRoot, writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Converts the markdown read from the given Reader to HTML and writes it to the given Appendable block by block.
+     * The input is only read ahead as far as needed to find the next top-level block boundary that the
+     * {@link BlockBoundaryScanner} can prove to be safe whatever comes after it. All blocks before such a boundary
+     * are parsed and serialized right away and their source is released, so the memory needed is bounded by the
+     * largest block rather than by the document. The output is identical to the one of
+     * {@link #markdownToHtml(char[])}.
+     *
+     * Reference links whose definitions come later in the document are handled by deferring: the HTML of a block
+     * with such a link (and of all blocks after it) is held back until all its references are defined or the input
+     * ends. With the {@link Extensions#ABBREVIATIONS} extension all HTML is held back until the input ends, since an
+     * abbreviation definition applies to the whole document. Sources with CR line endings are never split.
+     *
+     * If the blocks cannot be parsed within the configured parsing timeout, which applies to the time spent parsing
+     * all blocks of the document (not to the time spent waiting for the input or writing the output), the method
+     * throws a ParsingTimeoutException, the HTML of the blocks before might already have been written in that case.
+     *
+     * @param in the Reader to read the markdown source from
+     * @param out the Appendable to write the HTML to
+     * @throws IOException if reading or writing fails
+     */
+    public void markdownToHtml(Reader in, Appendable out) throws IOException {
+        StreamingHtmlRenderer renderer = new StreamingHtmlRenderer(newSerializer(), out,
+                (parser.options & Extensions.ABBREVIATIONS) != 0);
+        ParsingDeadline deadline = new ParsingDeadline();
+        deadline.pause(); // only runs while a block is parsed
+        try {
+            renderBlocks(in, renderer, deadline);
+        } finally {
+            deadline.disarm();
+        }
+        renderer.finish();
+    }
+
+    private void renderBlocks(Reader in, StreamingHtmlRenderer renderer, ParsingDeadline deadline) throws IOException {
+        char[] buffer = new char[MIN_READ_AHEAD + 2];
+        int length = 0;
+        while (true) {
+            // we read at least as much as we already hold, so rescanning after an unsuccessful scan stays linear
+            int wanted = length + Math.max(length, MIN_READ_AHEAD);
+            if (buffer.length < wanted + 2) buffer = Arrays.copyOf(buffer, wanted + 2);
+            int count = 0;
+            while (length < wanted && (count = in.read(buffer, length, wanted - length)) >= 0) {
+                length += count;
+            }
+            if (count < 0) break;
+
+            int end = canSplitSource() ?
+                    BlockBoundaryScanner.findLastStableSplitPoint(buffer, length, parser.options) : 0;
+            if (end > 0) {
+                renderer.add(parseBlocks(Arrays.copyOfRange(buffer, 0, end), deadline));
+                System.arraycopy(buffer, end, buffer, 0, length - end);
+                length -= end;
+            }
+        }
+        buffer[length++] = '\n';
+        buffer[length++] = '\n';
+        renderer.add(parseBlocks(Arrays.copyOf(buffer, length), deadline));
+    }
+
+    private RootNode parseBlocks(char[] source, ParsingDeadline deadline) {
+        deadline.resume();
+        try {
+            return parsePrepared(source, new ParsingSession(deadline));
+        } finally {
+            deadline.pause();
+        }
+    }
+
+    /**
+     * Converts all given markdown sources to HTML, spreading the work over a shared pool of daemon threads
+     * (one per available processor).
+     *
+     * @param markdownSources the markdown sources to convert
+     * @return the futures of the HTML results, in the order of the sources
+     * @see #markdownToHtmlAll(java.util.List, java.util.concurrent.Executor)
+     */
+    public List<Future<String>> markdownToHtmlAll(List<char[]> markdownSources) {
+        return markdownToHtmlAll(markdownSources, DefaultExecutorHolder.EXECUTOR);
+    }
+
+    /**
+     * Converts all given markdown sources to HTML, spreading the work over the given executor.
+     * The method returns immediately, the returned futures are in the order of the sources. Every worker
+     * thread renders on its own parser instance, taken from this processor's free list of idle parsers.
+     * If a document cannot be parsed within the configured parsing timeout its future fails with an
+     * {@link java.util.concurrent.ExecutionException} caused by a {@link ParsingTimeoutException}
+     * (rather than yielding null as {@link #markdownToHtml(char[])} does), so one pathological document
+     * does not affect any other entry of the batch.
+     *
+     * @param markdownSources the markdown sources to convert
+     * @param executor the executor to run the conversions on
+     * @return the futures of the HTML results, in the order of the sources
+     */
+    public List<Future<String>> markdownToHtmlAll(List<char[]> markdownSources, Executor executor) {
+        List<Future<String>> results = new ArrayList<Future<String>>(markdownSources.size());
+        for (char[] markdownSource : markdownSources) {
+            results.add(markdownToHtmlAsync(markdownSource, executor));
+        }
+        return results;
+    }
+
+    /**
+     * Converts the given markdown source to HTML on the shared pool of daemon threads also used for batch
+     * conversions.
+     *
+     * @param markdownSource the markdown source to convert
+     * @return the future of the HTML result
+     * @see #markdownToHtmlAsync(char[], java.util.concurrent.Executor)
+     */
+    public Future<String> markdownToHtmlAsync(char[] markdownSource) {
+        return markdownToHtmlAsync(markdownSource, DefaultExecutorHolder.EXECUTOR);
+    }
+
+    /**
+     * Converts the given markdown source to HTML on the given executor.
+     * Cancelling the returned future also stops a running parse at its next timeout checkpoint, so an
+     * abandoned conversion does not keep its thread busy until the parsing timeout elapses.
+     * If the document cannot be parsed within the configured parsing timeout the future fails with an
+     * {@link java.util.concurrent.ExecutionException} caused by a {@link ParsingTimeoutException}.
+     *
+     * @param markdownSource the markdown source to convert
+     * @param executor the executor to run the conversion on
+     * @return the future of the HTML result
+     */
+    public Future<String> markdownToHtmlAsync(final char[] markdownSource, Executor executor) {
+        final ParsingSession session = new ParsingSession();
+        FutureTask<String> task = new FutureTask<String>(new Callable<String>() {
+            public String call() {
+                return toHtml(parseMarkdown(markdownSource, session));
+            }
+        }) {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                session.cancel();
+                return super.cancel(mayInterruptIfRunning);
+            }
+        };
+        executor.execute(task);
+        return task;
+    }
+
+    private String toHtml(RootNode astRoot) {
+        return newSerializer().toHtml(astRoot);
+    }
+
+    // the serializer of the methods without rendering options
+    private ToHtmlSerializer newSerializer() {
+        return new ToHtmlSerializer(new LinkRenderer(), Collections.<String, VerbatimSerializer>emptyMap(),
+                parser.plugins.getHtmlSerializerPlugins()).withResourceLimits(resourceLimits);
+    }
+
     /**
      * Parses the given markdown source and returns the root node of the generated Abstract Syntax Tree.
      * If the input cannot be parsed within the configured parsing timeout the method throws a ParsingTimeoutException.
@@ -178,7 +511,323 @@ public class PegDownProcessor {
      * @return the AST root
      */
     public RootNode parseMarkdown(char[] markdownSource) {
-        return parser.parse(prepareSource(markdownSource));
+        return parseMarkdown(markdownSource, new ParsingSession());
+    }
+
+    /**
+     * Parses the given markdown source within the given {@link ParsingSession} and returns the root node of the
+     * generated Abstract Syntax Tree. The session can be used to cancel the parse from another thread.
+     * If the input cannot be parsed within the configured parsing timeout the method throws a ParsingTimeoutException,
+     * if the session is cancelled it throws a ParsingCancelledException.
+     *
+     * @param markdownSource the markdown source to convert
+     * @param session the fresh session to parse in
+     * @return the AST root
+     */
+    public RootNode parseMarkdown(char[] markdownSource, ParsingSession session) {
+        return parsePrepared(prepareSource(markdownSource), session);
+    }
+
+    /**
+     * Parses the given markdown source without copying it (see {@link MarkdownInputBuffer}) and returns the root
+     * node of the generated Abstract Syntax Tree.
+     * If the input cannot be parsed within the configured parsing timeout the method throws a ParsingTimeoutException.
+     *
+     * @param markdownSource the markdown source to convert, e.g. a String or a CharBuffer wrapping a char[] slice
+     * @return the AST root
+     */
+    public RootNode parseMarkdown(CharSequence markdownSource) {
+        return parseMarkdown(markdownSource, new ParsingSession());
+    }
+
+    /**
+     * Parses the given markdown source without copying it (see {@link MarkdownInputBuffer}) within the given
+     * {@link ParsingSession} and returns the root node of the generated Abstract Syntax Tree.
+     * If the input cannot be parsed within the configured parsing timeout the method throws a ParsingTimeoutException,
+     * if the session is cancelled it throws a ParsingCancelledException.
+     *
+     * @param markdownSource the markdown source to convert, e.g. a String or a CharBuffer wrapping a char[] slice
+     * @param session the fresh session to parse in
+     * @return the AST root
+     */
+    public RootNode parseMarkdown(CharSequence markdownSource, ParsingSession session) {
+        return parsePrepared(new MarkdownInputBuffer(markdownSource), session);
+    }
+
+    /**
+     * Converts the given markdown source to HTML, parsing large documents in parallel on the shared pool of daemon
+     * threads also used for batch conversions.
+     * If the input cannot be parsed within the configured parsing timeout the method returns null,
+     * if the calling thread is interrupted it throws a ParsingCancelledException.
+     *
+     * @param markdownSource the markdown source to convert
+     * @return the HTML
+     * @see #parseMarkdownInParallel(char[], int, java.util.concurrent.Executor)
+     */
+    public String markdownToHtmlInParallel(char[] markdownSource) {
+        try {
+            return toHtml(parseMarkdownInParallel(markdownSource, DEFAULT_MIN_CHUNK_SIZE,
+                    DefaultExecutorHolder.EXECUTOR));
+        } catch (ParsingCancelledException e) {
+            throw e;
+        } catch (ParsingTimeoutException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses the given markdown source like {@link #parseMarkdown(char[])}, but cuts it into chunks of at least the
+     * given size at top-level block boundaries which the {@link BlockBoundaryScanner} can prove to be safe, and parses
+     * all chunks in parallel. The chunk ASTs are stitched together with their indices shifted to the positions in the
+     * complete source and the reference and abbreviation definitions of all chunks are merged in document order,
+     * so the result is identical to the one of a sequential parse.
+     * The calling thread parses the first chunk itself and afterwards also every other chunk that no worker of the
+     * given executor has picked up yet, so the method also works (sequentially) on a saturated executor.
+     * Documents are always parsed sequentially if the processor uses plugins or a custom parser it cannot replicate.
+     * The parsing timeout and the checkpoints of the parsing budget apply to the document as a whole, not to every
+     * chunk separately.
+     *
+     * @param markdownSource the markdown source to convert
+     * @param minChunkSize the minimum number of characters per chunk
+     * @param executor the executor to run the chunk parses on
+     * @return the AST root
+     */
+    public RootNode parseMarkdownInParallel(char[] markdownSource, int minChunkSize, Executor executor) {
+        char[] source = prepareSource(markdownSource);
+        int[] splitPoints = canParseInParallel() ?
+                BlockBoundaryScanner.selectSplitPoints(BlockBoundaryScanner.findSplitPoints(source, parser.options),
+                        minChunkSize) : new int[0];
+        if (splitPoints.length == 0) return parsePrepared(source, new ParsingSession());
+
+        int chunkCount = splitPoints.length + 1;
+        int[] offsets = new int[chunkCount];
+        System.arraycopy(splitPoints, 0, offsets, 1, splitPoints.length);
+        ParsingDeadline deadline = new ParsingDeadline();
+        final ParsingSession[] sessions = new ParsingSession[chunkCount];
+        List<FutureTask<RootNode>> tasks = new ArrayList<FutureTask<RootNode>>(chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            final char[] chunk = Arrays.copyOfRange(source, offsets[i], i + 1 < chunkCount ? offsets[i + 1] : source.length);
+            final ParsingSession session = sessions[i] = new ParsingSession(deadline);
+            tasks.add(new FutureTask<RootNode>(new Callable<RootNode>() {
+                public RootNode call() {
+                    return parsePrepared(chunk, session);
+                }
+            }));
+            if (i > 0) executor.execute(tasks.get(i));
+        }
+
+        RootNode root = new RootNode();
+        List<ReferenceNode> references = new ArrayList<ReferenceNode>();
+        List<AbbreviationNode> abbreviations = new ArrayList<AbbreviationNode>();
+        try {
+            for (int i = 0; i < chunkCount; i++) {
+                FutureTask<RootNode> task = tasks.get(i);
+                task.run(); // a no-op if a worker has already started the task
+                RootNode chunkRoot = task.get();
+                shiftIndices(chunkRoot, offsets[i]);
+                shiftIndices(chunkRoot.getChildren(), chunkRoot, offsets[i]);
+                if (i == 0) root.setStartIndex(chunkRoot.getStartIndex());
+                root.setEndIndex(chunkRoot.getEndIndex());
+                root.getChildren().addAll(chunkRoot.getChildren());
+                references.addAll(chunkRoot.getReferences());
+                abbreviations.addAll(chunkRoot.getAbbreviations());
+            }
+        } catch (ExecutionException e) {
+            cancelAll(sessions);
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new RuntimeException(cause);
+        } catch (InterruptedException e) {
+            cancelAll(sessions);
+            Thread.currentThread().interrupt();
+            throw new ParsingCancelledException();
+        } finally {
+            deadline.disarm();
+        }
+        root.setReferences(ImmutableList.copyOf(references));
+        root.setAbbreviations(ImmutableList.copyOf(abbreviations));
+        return root;
+    }
+
+    /**
+     * Parses the given markdown source after an edit of a document whose AST is known, reusing all top-level blocks
+     * of that AST that the edit cannot have affected. Only the source between the closest block boundaries around
+     * the edited range which the {@link BlockBoundaryScanner} can prove to be safe is parsed again, all blocks after
+     * it are moved to their new positions and the reference and abbreviation definitions are merged accordingly,
+     * so the result is identical to the one of {@link #parseMarkdown(char[])}.
+     * Since the nodes of the previous AST are reused (and their indices changed) it must not be used any more
+     * afterwards. Documents are always parsed completely if the processor uses plugins.
+     *
+     * @param previous the AST of the document before the edit, as created by this processor
+     * @param newSource the markdown source after the edit
+     * @param editStart the index of the first character changed by the edit
+     * @param removedLen the number of characters the edit removed at editStart
+     * @param insertedLen the number of characters the edit inserted at editStart
+     * @return the AST root
+     */
+    public RootNode parseIncremental(RootNode previous, char[] newSource, int editStart, int removedLen,
+                                     int insertedLen) {
+        checkArgNotNull(previous, "previous");
+        checkArgument(editStart >= 0 && removedLen >= 0 && insertedLen >= 0 &&
+                editStart + insertedLen <= newSource.length, "Invalid edit range");
+        char[] source = prepareSource(newSource);
+        if (!canSplitSource()) return parsePrepared(source, new ParsingSession());
+
+        int delta = insertedLen - removedLen;
+        List<Node> blocks = previous.getChildren();
+        BlockBoundaryScanner scanner = BlockBoundaryScanner.scan(source, parser.options);
+        int[] splitPoints = scanner.getSplitPoints();
+        int prefixEnd = 0;
+        int suffixStart = source.length;
+        for (int point : splitPoints) {
+            if (point <= editStart && point <= scanner.getHorizon() && isBlockStart(blocks, point)) {
+                prefixEnd = point;
+            } else if (point >= editStart + insertedLen && isBlockStart(blocks, point - delta)) {
+                suffixStart = point;
+                break;
+            }
+        }
+        int oldSuffixStart = suffixStart - delta;
+
+        RootNode root = new RootNode();
+        List<ReferenceNode> references = new ArrayList<ReferenceNode>();
+        List<AbbreviationNode> abbreviations = new ArrayList<AbbreviationNode>();
+        for (Node block : blocks) {
+            if (block.getStartIndex() < prefixEnd) root.getChildren().add(block);
+        }
+        collectBefore(previous.getReferences(), prefixEnd, references);
+        collectBefore(previous.getAbbreviations(), prefixEnd, abbreviations);
+
+        RootNode chunkRoot = null;
+        if (prefixEnd < suffixStart) {
+            chunkRoot = parsePrepared(Arrays.copyOfRange(source, prefixEnd, suffixStart),
+                    new ParsingSession());
+            shiftIndices(chunkRoot, prefixEnd);
+            shiftIndices(chunkRoot.getChildren(), chunkRoot, prefixEnd);
+            root.getChildren().addAll(chunkRoot.getChildren());
+            references.addAll(chunkRoot.getReferences());
+            abbreviations.addAll(chunkRoot.getAbbreviations());
+        }
+
+        // the reference and abbreviation nodes are part of the tree, so we select them before shifting it
+        collectFrom(previous.getReferences(), oldSuffixStart, references);
+        collectFrom(previous.getAbbreviations(), oldSuffixStart, abbreviations);
+        int suffixBlocksStart = root.getChildren().size();
+        for (Node block : blocks) {
+            if (block.getStartIndex() >= oldSuffixStart) root.getChildren().add(block);
+        }
+        shiftIndices(root.getChildren().subList(suffixBlocksStart, root.getChildren().size()), previous, delta);
+
+        root.setStartIndex(chunkRoot != null && prefixEnd == 0 ? chunkRoot.getStartIndex() : previous.getStartIndex());
+        root.setEndIndex(suffixStart < source.length ? previous.getEndIndex() + delta : chunkRoot.getEndIndex());
+        root.setReferences(ImmutableList.copyOf(references));
+        root.setAbbreviations(ImmutableList.copyOf(abbreviations));
+        return root;
+    }
+
+    // true if one of the given (ordered) top-level blocks starts at the given index and none spans it
+    private static boolean isBlockStart(List<Node> blocks, int index) {
+        int low = 0;
+        int high = blocks.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int start = blocks.get(mid).getStartIndex();
+            if (start < index) low = mid + 1;
+            else if (start > index) high = mid - 1;
+            else return mid == 0 || blocks.get(mid - 1).getEndIndex() <= index;
+        }
+        return false;
+    }
+
+    private static <T extends Node> void collectBefore(List<T> nodes, int index, List<T> result) {
+        for (T node : nodes) {
+            if (node.getStartIndex() < index) result.add(node);
+        }
+    }
+
+    private static <T extends Node> void collectFrom(List<T> nodes, int index, List<T> result) {
+        for (T node : nodes) {
+            if (node.getStartIndex() >= index) result.add(node);
+        }
+    }
+
+    // nodes without a source range (e.g. the label of a reference link) keep their zero indices,
+    // just like in a sequential parse
+    private static void shiftIndices(Node node, int delta) {
+        AbstractNode abstractNode = (AbstractNode) node;
+        if (abstractNode.getStartIndex() != 0 || abstractNode.getEndIndex() != 0) abstractNode.shiftIndices(delta);
+    }
+
+    // shifts the given (ordered) top-level blocks with all their contents lazily (see AbstractNode#shiftTreeIndices),
+    // except for the contents of the blocks with nested reference or abbreviation nodes of the given root:
+    // these nodes are also reachable through the root's lists rather than through their parents only,
+    // so their blocks are shifted right away
+    private static void shiftIndices(List<Node> blocks, RootNode root, int delta) {
+        Set<Node> eagerBlocks = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+        addBlocksContaining(blocks, root.getReferences(), eagerBlocks);
+        addBlocksContaining(blocks, root.getAbbreviations(), eagerBlocks);
+        for (Node block : blocks) {
+            ((AbstractNode) block).shiftTreeIndices(delta);
+            if (eagerBlocks.contains(block)) applyShifts(block);
+        }
+    }
+
+    private static void addBlocksContaining(List<Node> blocks, List<? extends Node> nodes, Set<Node> result) {
+        for (Node node : nodes) {
+            int low = 0;
+            int high = blocks.size() - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                Node block = blocks.get(mid);
+                if (block.getEndIndex() <= node.getStartIndex()) low = mid + 1;
+                else if (block.getStartIndex() > node.getStartIndex()) high = mid - 1;
+                else {
+                    if (block != node) result.add(block);
+                    break;
+                }
+            }
+        }
+    }
+
+    private static void applyShifts(Node node) {
+        for (Node child : node.getChildren()) { // getChildren applies the pending shift to the children
+            applyShifts(child);
+        }
+    }
+
+    private static void cancelAll(ParsingSession[] sessions) {
+        for (ParsingSession session : sessions) {
+            session.cancel();
+        }
+    }
+
+    private boolean canParseInParallel() {
+        return parserLock == null && canSplitSource();
+    }
+
+    private boolean canSplitSource() {
+        // plugin rules might span arbitrary blank lines, so we cannot find safe split points for them
+        return parser.plugins.getBlockPluginRules().length == 0 && parser.plugins.getInlinePluginRules().length == 0;
+    }
+
+    private RootNode parsePrepared(char[] source, ParsingSession session) {
+        return parsePrepared(new DefaultInputBuffer(source), session);
+    }
+
+    private RootNode parsePrepared(InputBuffer input, ParsingSession session) {
+        Parser parser = leaseParser();
+        try {
+            session.limits = resourceLimits;
+            return parser.parse(input, session);
+        } catch (ParserRuntimeException e) {
+            // thrown from within a parser action, so parboiled wrapped it
+            if (e.getCause() instanceof ParsingTimeoutException) throw (ParsingTimeoutException) e.getCause();
+            if (e.getCause() instanceof ResourceLimitExceededException) throw (ResourceLimitExceededException) e.getCause();
+            throw e;
+        } finally {
+            releaseParser(parser);
+        }
     }
 
     /**
@@ -194,4 +843,57 @@ public class PegDownProcessor {
         src[source.length + 1] = '\n';
         return src;
     }
+
+    /**
+     * Provides a parser instance for exclusive use by the current thread until it is handed back with
+     * {@link #releaseParser(Parser)}.
+     *
+     * @return an idle parser instance of this processor's configuration
+     */
+    protected Parser leaseParser() {
+        if (parserLock != null) {
+            parserLock.lock();
+            return parser;
+        }
+        Parser idle = idleParsers.poll();
+        return idle != null ? idle : replicate(parser);
+    }
+
+    /**
+     * Hands back a parser obtained from {@link #leaseParser()}.
+     *
+     * @param parser the parser to return to the idle list
+     */
+    protected void releaseParser(Parser parser) {
+        if (parserLock != null) {
+            parserLock.unlock();
+        } else {
+            idleParsers.offer(parser);
+        }
+    }
+
+    // the default executor for batch and asynchronous conversions, only created when first used
+    private static class DefaultExecutorHolder {
+        static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "pegdown-worker-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    // we can only create more instances of the parser if it is a plain parboiled extension of our Parser class,
+    // for custom subclasses we have no way of knowing the constructor arguments
+    private static boolean isReplicable(Parser parser) {
+        return parser.getClass().getSuperclass() == Parser.class;
+    }
+
+    private static Parser replicate(Parser parser) {
+        return Parboiled.createParser(Parser.class, parser.options, parser.budget,
+                parser.parseRunnerProvider, parser.plugins);
+    }
 }
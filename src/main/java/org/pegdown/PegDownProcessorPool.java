@@ -0,0 +1,386 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown;
+
+import org.pegdown.plugins.PegDownPlugins;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.parboiled.common.Preconditions.checkArgNotNull;
+import static org.parboiled.common.Preconditions.checkArgument;
+
+/**
+ * A bounded pool of {@link PegDownProcessor} instances sharing one configuration (extension bitmask, parsing
+ * timeout and plugins). Processors are created lazily up to the configured maximum size and handed out
+ * exclusively with {@link #acquire()} / {@link #release(PegDownProcessor)}, or used implicitly through
+ * {@link #markdownToHtml(char[])}. The pool thereby also bounds the number of documents that are rendered at the
+ * same time with this configuration.
+ * Waiting for a processor is implemented with a {@link ReentrantLock} rather than monitor locks and the pool keeps
+ * no thread-local state, so it can be used from thread-per-request servers as well as from virtual threads.
+ */
+public class PegDownProcessorPool {
+    private final int options;
+    private final long maxParsingTimeInMillis;
+    private final PegDownPlugins plugins;
+    private final int maxSize;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final Deque<PegDownProcessor> idle = new ArrayDeque<PegDownProcessor>();
+    private int size;    // number of processors created (or currently being created)
+    private int leased;  // number of processors currently handed out
+    private final Set<PegDownProcessor> leasedProcessors =
+            Collections.newSetFromMap(new IdentityHashMap<PegDownProcessor, Boolean>());
+
+    // metrics, guarded by `lock`
+    private int peakLeased;
+    private long acquireCount;
+    private long waitCount;
+    private long timeoutCount;
+    private long totalWaitNanos;
+
+    /**
+     * Creates a new pool for processors with the given {@link org.pegdown.Extensions} and plugins and the
+     * default parsing timeout.
+     *
+     * @param options the flags of the extensions to enable as a bitmask
+     * @param plugins the plugins to use
+     * @param minSize the number of processors to create up-front
+     * @param maxSize the maximum number of processors this pool will ever create
+     */
+    public PegDownProcessorPool(int options, PegDownPlugins plugins, int minSize, int maxSize) {
+        this(options, PegDownProcessor.DEFAULT_MAX_PARSING_TIME, plugins, minSize, maxSize);
+    }
+
+    /**
+     * Creates a new pool for processors with the given {@link org.pegdown.Extensions}, parsing timeout and plugins.
+     *
+     * @param options the flags of the extensions to enable as a bitmask
+     * @param maxParsingTimeInMillis the parsing timeout
+     * @param plugins the plugins to use
+     * @param minSize the number of processors to create up-front
+     * @param maxSize the maximum number of processors this pool will ever create
+     */
+    public PegDownProcessorPool(int options, long maxParsingTimeInMillis, PegDownPlugins plugins, int minSize,
+                                int maxSize) {
+        checkArgNotNull(plugins, "plugins");
+        checkArgument(minSize >= 0, "minSize must not be negative");
+        checkArgument(maxSize > 0 && maxSize >= minSize, "maxSize must be positive and not less than minSize");
+        this.options = options;
+        this.maxParsingTimeInMillis = maxParsingTimeInMillis;
+        this.plugins = plugins;
+        this.maxSize = maxSize;
+        for (int i = 0; i < minSize; i++) {
+            idle.push(createProcessor());
+        }
+        size = minSize;
+    }
+
+    /**
+     * Takes a processor from the pool, waiting as long as necessary for one to become available.
+     * The processor must be handed back with {@link #release(PegDownProcessor)}.
+     *
+     * @return the leased processor
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public PegDownProcessor acquire() throws InterruptedException {
+        return acquire(-1L);
+    }
+
+    /**
+     * Takes a processor from the pool, waiting at most the given time for one to become available.
+     * The processor must be handed back with {@link #release(PegDownProcessor)}.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout argument
+     * @return the leased processor or null if the timeout elapsed before a processor became available
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public PegDownProcessor acquire(long timeout, TimeUnit unit) throws InterruptedException {
+        checkArgNotNull(unit, "unit");
+        return acquire(Math.max(0L, unit.toNanos(timeout)));
+    }
+
+    // a negative timeout means "wait forever"
+    private PegDownProcessor acquire(long timeoutNanos) throws InterruptedException {
+        boolean create = false;
+        PegDownProcessor processor = null;
+        lock.lockInterruptibly();
+        try {
+            acquireCount++;
+            if (idle.isEmpty() && size == maxSize) {
+                waitCount++;
+                long start = System.nanoTime();
+                long remaining = timeoutNanos;
+                try {
+                    while (idle.isEmpty() && size == maxSize) {
+                        if (timeoutNanos < 0L) {
+                            available.await();
+                        } else if (remaining > 0L) {
+                            remaining = available.awaitNanos(remaining);
+                        } else {
+                            timeoutCount++;
+                            return null;
+                        }
+                    }
+                } finally {
+                    totalWaitNanos += System.nanoTime() - start;
+                }
+            }
+            if (idle.isEmpty()) {
+                size++; // reserve the slot, the processor itself is built outside of the lock
+                create = true;
+            } else {
+                processor = idle.pop();
+                leasedProcessors.add(processor);
+            }
+            leased++;
+            if (leased > peakLeased) peakLeased = leased;
+        } finally {
+            lock.unlock();
+        }
+        if (create) {
+            try {
+                processor = createProcessor();
+            } catch (RuntimeException e) {
+                lock.lock();
+                try {
+                    size--;
+                    leased--;
+                    available.signal();
+                } finally {
+                    lock.unlock();
+                }
+                throw e;
+            }
+            lock.lock();
+            try {
+                leasedProcessors.add(processor);
+            } finally {
+                lock.unlock();
+            }
+        }
+        return processor;
+    }
+
+    /**
+     * Hands a processor obtained from this pool back to it.
+     *
+     * @param processor the processor to return
+     * @throws IllegalArgumentException if the processor is not currently leased from this pool, e.g. because it
+     *         has already been released
+     */
+    public void release(PegDownProcessor processor) {
+        checkArgNotNull(processor, "processor");
+        lock.lock();
+        try {
+            checkArgument(leasedProcessors.remove(processor), "The processor is not currently leased from this pool");
+            leased--;
+            idle.push(processor);
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Converts the given markdown source to HTML with a processor leased from this pool, waiting as long as
+     * necessary for one to become available.
+     * If the input cannot be parsed within the configured parsing timeout the method returns null.
+     *
+     * @param markdownSource the markdown source to convert
+     * @return the HTML
+     * @throws InterruptedException if the current thread is interrupted while waiting for a processor
+     */
+    public String markdownToHtml(String markdownSource) throws InterruptedException {
+        return markdownToHtml(markdownSource.toCharArray());
+    }
+
+    /**
+     * Converts the given markdown source to HTML with a processor leased from this pool, waiting as long as
+     * necessary for one to become available.
+     * If the input cannot be parsed within the configured parsing timeout the method returns null.
+     *
+     * @param markdownSource the markdown source to convert
+     * @return the HTML
+     * @throws InterruptedException if the current thread is interrupted while waiting for a processor
+     */
+    public String markdownToHtml(char[] markdownSource) throws InterruptedException {
+        PegDownProcessor processor = acquire();
+        try {
+            return processor.markdownToHtml(markdownSource);
+        } finally {
+            release(processor);
+        }
+    }
+
+    /**
+     * Converts the given markdown source to HTML with a processor leased from this pool, waiting at most the
+     * given time for one to become available.
+     * If the input cannot be parsed within the configured parsing timeout the method returns null.
+     *
+     * @param markdownSource the markdown source to convert
+     * @param timeout the maximum time to wait for a processor
+     * @param unit the unit of the timeout argument
+     * @return the HTML
+     * @throws InterruptedException if the current thread is interrupted while waiting for a processor
+     * @throws TimeoutException if no processor became available within the given time
+     */
+    public String markdownToHtml(char[] markdownSource, long timeout, TimeUnit unit)
+            throws InterruptedException, TimeoutException {
+        PegDownProcessor processor = acquire(timeout, unit);
+        if (processor == null) {
+            throw new TimeoutException("No PegDownProcessor became available within " + timeout + ' ' + unit);
+        }
+        try {
+            return processor.markdownToHtml(markdownSource);
+        } finally {
+            release(processor);
+        }
+    }
+
+    protected PegDownProcessor createProcessor() {
+        return new PegDownProcessor(options, maxParsingTimeInMillis, plugins);
+    }
+
+    //************* METRICS ****************
+
+    /**
+     * @return the maximum number of processors this pool will create
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return the number of processors created so far
+     */
+    public int getSize() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of processors currently leased
+     */
+    public int getLeasedCount() {
+        lock.lock();
+        try {
+            return leased;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of idle processors currently held by the pool
+     */
+    public int getIdleCount() {
+        lock.lock();
+        try {
+            return idle.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the highest number of processors that were leased at the same time
+     */
+    public int getPeakLeasedCount() {
+        lock.lock();
+        try {
+            return peakLeased;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the total number of acquire calls
+     */
+    public long getAcquireCount() {
+        lock.lock();
+        try {
+            return acquireCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of acquire calls that found the pool saturated and had to wait
+     */
+    public long getWaitCount() {
+        lock.lock();
+        try {
+            return waitCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of acquire calls that gave up because their timeout elapsed
+     */
+    public long getTimeoutCount() {
+        lock.lock();
+        try {
+            return timeoutCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the accumulated time (in nanoseconds) all acquire calls spent waiting for a processor
+     */
+    public long getTotalWaitNanos() {
+        lock.lock();
+        try {
+            return totalWaitNanos;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return "PegDownProcessorPool [size=" + size + '/' + maxSize + ", leased=" + leased + ", peak=" +
+                    peakLeased + ", acquires=" + acquireCount + ", waits=" + waitCount + ", timeouts=" +
+                    timeoutCount + ']';
+        } finally {
+            lock.unlock();
+        }
+    }
+}
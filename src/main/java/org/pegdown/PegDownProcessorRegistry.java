@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown;
+
+import org.pegdown.plugins.PegDownPlugins;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.parboiled.common.Preconditions.checkArgNotNull;
+import static org.parboiled.common.Preconditions.checkArgument;
+
+/**
+ * A bounded cache of {@link PegDownProcessor} instances keyed by their {@link org.pegdown.Extensions} bitmask and
+ * {@link PegDownPlugins} instance (compared by identity). Since processors are thread-safe a single registry can
+ * serve all threads of an application that renders markdown with many different extension combinations:
+ * commonly used combinations are built only once, while the least recently used ones are evicted as soon as more
+ * than the configured maximum number of processors would be cached.
+ */
+public class PegDownProcessorRegistry {
+    public static final int DEFAULT_MAX_SIZE = 32;
+
+    private final long maxParsingTimeInMillis;
+    private final int maxSize;
+    private final Map<Key, PegDownProcessor> processors;
+
+    // metrics, guarded by `this`
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * Creates a new registry holding at most {@link #DEFAULT_MAX_SIZE} processors with the default parsing timeout.
+     */
+    public PegDownProcessorRegistry() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Creates a new registry holding at most the given number of processors with the default parsing timeout.
+     *
+     * @param maxSize the maximum number of processors to keep
+     */
+    public PegDownProcessorRegistry(int maxSize) {
+        this(maxSize, PegDownProcessor.DEFAULT_MAX_PARSING_TIME);
+    }
+
+    /**
+     * Creates a new registry holding at most the given number of processors with the given parsing timeout.
+     *
+     * @param maxSize the maximum number of processors to keep
+     * @param maxParsingTimeInMillis the parsing timeout of all processors created by this registry
+     */
+    public PegDownProcessorRegistry(final int maxSize, long maxParsingTimeInMillis) {
+        checkArgument(maxSize > 0, "maxSize must be positive");
+        this.maxSize = maxSize;
+        this.maxParsingTimeInMillis = maxParsingTimeInMillis;
+        this.processors = new LinkedHashMap<Key, PegDownProcessor>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, PegDownProcessor> eldest) {
+                if (size() <= maxSize) return false;
+                evictionCount++;
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns the processor for the given {@link org.pegdown.Extensions} without any plugins,
+     * creating it if it is not cached yet.
+     *
+     * @param options the flags of the extensions to enable as a bitmask
+     * @return the processor
+     */
+    public PegDownProcessor get(int options) {
+        return get(options, PegDownPlugins.NONE);
+    }
+
+    /**
+     * Returns the processor for the given {@link org.pegdown.Extensions} and plugins,
+     * creating it if it is not cached yet.
+     *
+     * @param options the flags of the extensions to enable as a bitmask
+     * @param plugins the plugins to use
+     * @return the processor
+     */
+    public PegDownProcessor get(int options, PegDownPlugins plugins) {
+        checkArgNotNull(plugins, "plugins");
+        Key key = new Key(options, plugins);
+        synchronized (this) {
+            PegDownProcessor processor = processors.get(key);
+            if (processor != null) {
+                hitCount++;
+                return processor;
+            }
+            missCount++;
+        }
+        // building the rule graph takes a while, so we don't block the other threads during it
+        PegDownProcessor created = createProcessor(options, plugins);
+        synchronized (this) {
+            PegDownProcessor processor = processors.get(key);
+            if (processor != null) return processor; // another thread was faster
+            processors.put(key, created);
+            return created;
+        }
+    }
+
+    /**
+     * Converts the given markdown source to HTML with the cached processor for the given options.
+     * If the input cannot be parsed within the configured parsing timeout the method returns null.
+     *
+     * @param markdownSource the markdown source to convert
+     * @param options the flags of the extensions to enable as a bitmask
+     * @return the HTML
+     */
+    public String markdownToHtml(char[] markdownSource, int options) {
+        return get(options).markdownToHtml(markdownSource);
+    }
+
+    /**
+     * Removes all cached processors.
+     */
+    public synchronized void clear() {
+        processors.clear();
+    }
+
+    protected PegDownProcessor createProcessor(int options, PegDownPlugins plugins) {
+        return new PegDownProcessor(options, maxParsingTimeInMillis, plugins);
+    }
+
+    //************* METRICS ****************
+
+    /**
+     * @return the maximum number of processors this registry keeps
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return the number of processors currently cached
+     */
+    public synchronized int getSize() {
+        return processors.size();
+    }
+
+    /**
+     * @return the number of lookups that found a cached processor
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return the number of lookups that had to create a new processor
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return the number of processors that were evicted because the registry was full
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PegDownProcessorRegistry [size=" + processors.size() + '/' + maxSize + ", hits=" + hitCount +
+                ", misses=" + missCount + ", evictions=" + evictionCount + ']';
+    }
+
+    private static class Key {
+        private final int options;
+        private final PegDownPlugins plugins;
+
+        private Key(int options, PegDownPlugins plugins) {
+            this.options = options;
+            this.plugins = plugins;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return options == key.options && plugins == key.plugins;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * options + System.identityHashCode(plugins);
+        }
+    }
+}
@@ -18,12 +18,30 @@
 
 package org.pegdown;
 
+import java.io.IOException;
+
+import static org.parboiled.common.Preconditions.checkArgNotNull;
+import static org.parboiled.common.Preconditions.checkArgument;
+
 /**
  * Encapsulates basic string output functionality.
+ * A printer either collects all output in its StringBuilder or, if created with an Appendable sink, only buffers
+ * it and writes it to the sink whenever the buffer is full. In the latter case the output may fail with an
+ * IOException at any time, which is kept and rethrown by {@link #flush()}.
  */
 public class Printer {
     public final StringBuilder sb;
     public int indent;
+    private int flushed; // number of chars at the start of sb that have already been flushed
+    private long released; // number of chars flushed and removed from sb
+    private final Appendable out;
+    private final int bufferSize;
+    private IOException ioException;
+    private ResourceLimits limits = ResourceLimits.UNLIMITED;
+    private boolean checked; // whether the output has to be checked after every print
+    private boolean degrading; // whether exceeding the output length limit drops the current top-level block
+    private int blockStart; // the index in sb of the start of the current top-level block
+    private boolean cutOff; // whether all further output is dropped
 
     public Printer() {
         this(new StringBuilder());
@@ -31,6 +49,38 @@ public class Printer {
 
     public Printer(StringBuilder sb) {
         this.sb = sb;
+        this.out = null;
+        this.bufferSize = 0;
+    }
+
+    /**
+     * Creates a printer writing to the given Appendable (e.g. a Writer) in chunks of about the given size.
+     *
+     * @param out the Appendable to write to
+     * @param bufferSize the number of chars to buffer before writing them
+     */
+    public Printer(Appendable out, int bufferSize) {
+        checkArgNotNull(out, "out");
+        checkArgument(bufferSize > 0, "bufferSize must be positive");
+        this.sb = new StringBuilder(bufferSize + 16);
+        this.out = out;
+        this.bufferSize = bufferSize;
+        this.checked = true;
+    }
+
+    // applies the output length limit of the given limits to all further output
+    Printer limitLength(ResourceLimits limits) {
+        this.limits = limits;
+        this.checked = out != null || limits.getMaxOutputLength() > 0;
+        this.degrading = limits.getMaxOutputLength() > 0 && limits.getPolicy() == ResourceLimits.Policy.DEGRADE;
+        return this;
+    }
+
+    // marks the start of the next top-level block, the unit in which output beyond the length limit is dropped
+    void markBlockStart() {
+        if (cutOff) return;
+        blockStart = sb.length();
+        if (out != null) flushIfFull();
     }
 
     public Printer indent(int delta) {
@@ -40,16 +90,19 @@ public class Printer {
 
     public Printer print(String string) {
         sb.append(string);
+        if (checked) checkOutput();
         return this;
     }
 
     public Printer printEncoded(String string) {
         FastEncoder.encode(string, sb);
+        if (checked) checkOutput();
         return this;
     }
 
     public Printer print(char c) {
         sb.append(c);
+        if (checked) checkOutput();
         return this;
     }
 
@@ -87,12 +140,87 @@ public class Printer {
         return false;
     }
 
+    /**
+     * @return the output printed since the last flush (i.e. all output if this printer has no Appendable sink)
+     */
     public String getString() {
-        return sb.toString();
+        return sb.substring(flushed);
     }
     
     public Printer clear() {
         sb.setLength(0);
+        flushed = 0;
+        released = 0;
+        blockStart = 0;
+        cutOff = false;
+        return this;
+    }
+
+    /**
+     * Appends everything printed since the last flush to the given Appendable and releases it, except for the
+     * short tail that {@link #println()} and {@link #endsWithNewLine()} still need to look at.
+     *
+     * @param out the Appendable to write to
+     * @return this printer
+     * @throws IOException if the Appendable throws one
+     */
+    public Printer flushTo(Appendable out) throws IOException {
+        out.append(sb, flushed, sb.length());
+        release(sb.length());
         return this;
     }
+
+    /**
+     * Writes all buffered output to the Appendable this printer was created with (if any).
+     *
+     * @return this printer
+     * @throws IOException if writing to the Appendable failed, now or at an earlier, automatic flush
+     */
+    public Printer flush() throws IOException {
+        if (ioException != null) throw ioException;
+        if (out != null) flushTo(out);
+        return this;
+    }
+
+    private void checkOutput() {
+        if (cutOff) {
+            sb.setLength(blockStart);
+            return;
+        }
+        long maxLength = limits.getMaxOutputLength();
+        if (maxLength > 0 && released + sb.length() > maxLength) {
+            limits.exceeded(ResourceLimits.Limit.OUTPUT_LENGTH);
+            // the document is degraded: the top-level block exceeding the limit and all output after it is dropped,
+            // so the output never ends within a tag or entity
+            cutOff = true;
+            sb.setLength(blockStart);
+        }
+        if (out != null) flushIfFull();
+    }
+
+    private void flushIfFull() {
+        // when degrading, the current top-level block might still have to be dropped
+        int end = degrading ? blockStart : sb.length();
+        if (end - flushed >= bufferSize) {
+            if (ioException == null) {
+                try {
+                    out.append(sb, flushed, end);
+                } catch (IOException e) {
+                    ioException = e;
+                }
+            }
+            release(end); // after a failure all further output is dropped
+        }
+    }
+
+    // releases the flushed output up to the given index
+    private void release(int end) {
+        int tailStart = sb.length();
+        while (tailStart > 0 && sb.charAt(tailStart - 1) == ' ') tailStart--;
+        int releasedNow = Math.max(0, Math.min(end, tailStart - 1));
+        sb.delete(0, releasedNow);
+        released += releasedNow;
+        blockStart = Math.max(0, blockStart - releasedNow);
+        flushed = end - releasedNow;
+    }
 }
@@ -0,0 +1,21 @@
+package org.pegdown;
+
+/**
+ * Thrown when a document exceeds one of the {@link ResourceLimits} of the {@link PegDownProcessor} converting it
+ * and the limits are configured to {@link ResourceLimits.Policy#FAIL fail} in that case.
+ */
+public class ResourceLimitExceededException extends RuntimeException {
+    private final ResourceLimits.Limit limit;
+
+    public ResourceLimitExceededException(ResourceLimits.Limit limit) {
+        super("Document exceeds the " + limit + " limit");
+        this.limit = limit;
+    }
+
+    /**
+     * @return the limit the document exceeds
+     */
+    public ResourceLimits.Limit getLimit() {
+        return limit;
+    }
+}
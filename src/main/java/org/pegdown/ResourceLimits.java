@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown;
+
+import static org.parboiled.common.Preconditions.checkArgNotNull;
+import static org.parboiled.common.Preconditions.checkArgument;
+
+/**
+ * Limits the stack and heap a {@link PegDownProcessor} may use for a single document:
+ * <ul>
+ *     <li>the nesting depth of block quotes and list items, each of which is parsed by a recursive inner parse,</li>
+ *     <li>the number of AST nodes per parse (counted block by block while parsing, without the nodes discarded on
+ *     backtracking) and</li>
+ *     <li>the length of the HTML output.</li>
+ * </ul>
+ * Depending on the {@link Policy} a document exceeding a limit either fails with a
+ * {@link ResourceLimitExceededException} or is degraded: block quotes and list items nested too deeply keep their
+ * content as plain text, nodes beyond the maximum are dropped and the output ends with the last top-level block
+ * that fits into the maximum length, so it is never cut off within an element.
+ * Documents parsed in parts (in parallel or streamed) apply the node limit to every part.
+ * A limit of 0 means no limit. Instances are immutable.
+ */
+public final class ResourceLimits {
+    public enum Limit { NESTING_DEPTH, NODE_COUNT, OUTPUT_LENGTH }
+
+    public enum Policy { FAIL, DEGRADE }
+
+    public static final ResourceLimits UNLIMITED = new ResourceLimits(0, 0L, 0L, Policy.FAIL);
+
+    private final int maxNestingDepth;
+    private final long maxNodeCount;
+    private final long maxOutputLength;
+    private final Policy policy;
+
+    private ResourceLimits(int maxNestingDepth, long maxNodeCount, long maxOutputLength, Policy policy) {
+        this.maxNestingDepth = maxNestingDepth;
+        this.maxNodeCount = maxNodeCount;
+        this.maxOutputLength = maxOutputLength;
+        this.policy = policy;
+    }
+
+    /**
+     * @param maxNestingDepth the maximum nesting depth of block quotes and list items, 0 for no limit
+     * @return a copy of these limits with the given nesting depth limit
+     */
+    public ResourceLimits withMaxNestingDepth(int maxNestingDepth) {
+        checkArgument(maxNestingDepth >= 0, "maxNestingDepth must not be negative");
+        return new ResourceLimits(maxNestingDepth, maxNodeCount, maxOutputLength, policy);
+    }
+
+    /**
+     * @param maxNodeCount the maximum number of AST nodes per parse, 0 for no limit
+     * @return a copy of these limits with the given node limit
+     */
+    public ResourceLimits withMaxNodeCount(long maxNodeCount) {
+        checkArgument(maxNodeCount >= 0, "maxNodeCount must not be negative");
+        return new ResourceLimits(maxNestingDepth, maxNodeCount, maxOutputLength, policy);
+    }
+
+    /**
+     * @param maxOutputLength the maximum number of chars of HTML per document, 0 for no limit
+     * @return a copy of these limits with the given output limit
+     */
+    public ResourceLimits withMaxOutputLength(long maxOutputLength) {
+        checkArgument(maxOutputLength >= 0, "maxOutputLength must not be negative");
+        return new ResourceLimits(maxNestingDepth, maxNodeCount, maxOutputLength, policy);
+    }
+
+    /**
+     * @param policy what to do with a document exceeding a limit
+     * @return a copy of these limits with the given policy
+     */
+    public ResourceLimits withPolicy(Policy policy) {
+        checkArgNotNull(policy, "policy");
+        return new ResourceLimits(maxNestingDepth, maxNodeCount, maxOutputLength, policy);
+    }
+
+    public int getMaxNestingDepth() {
+        return maxNestingDepth;
+    }
+
+    public long getMaxNodeCount() {
+        return maxNodeCount;
+    }
+
+    public long getMaxOutputLength() {
+        return maxOutputLength;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    // the common handling of an exceeded limit, returns normally if the document is to be degraded
+    void exceeded(Limit limit) {
+        if (policy == Policy.FAIL) throw new ResourceLimitExceededException(limit);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ResourceLimits)) return false;
+        ResourceLimits that = (ResourceLimits) o;
+        return maxNestingDepth == that.maxNestingDepth && maxNodeCount == that.maxNodeCount &&
+                maxOutputLength == that.maxOutputLength && policy == that.policy;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = maxNestingDepth;
+        result = 31 * result + (int) (maxNodeCount ^ (maxNodeCount >>> 32));
+        result = 31 * result + (int) (maxOutputLength ^ (maxOutputLength >>> 32));
+        return 31 * result + policy.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "ResourceLimits(maxNestingDepth=" + maxNestingDepth + ", maxNodeCount=" + maxNodeCount +
+                ", maxOutputLength=" + maxOutputLength + ", policy=" + policy + ')';
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown;
+
+import org.pegdown.ast.Node;
+import org.pegdown.ast.RefImageNode;
+import org.pegdown.ast.RefLinkNode;
+import org.pegdown.ast.RootNode;
+import org.pegdown.ast.SuperNode;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * Serializes the consecutive parts of a document (as parsed by {@link PegDownProcessor#markdownToHtml(java.io.Reader,
+ * Appendable)}) with one {@link ToHtmlSerializer} and writes the HTML of every part to an Appendable as soon as
+ * it can no longer change, i.e. once all reference links in it can be resolved (or the document is complete).
+ * Parts are always written in document order, so a part with an unresolved reference also holds back all parts
+ * after it.
+ */
+class StreamingHtmlRenderer {
+    private final ToHtmlSerializer serializer;
+    private final Appendable out;
+    private final boolean holdBack;
+    private final Queue<RootNode> pending = new ArrayDeque<RootNode>();
+
+    /**
+     * @param serializer the serializer to use for all parts
+     * @param out the Appendable to write the HTML to
+     * @param holdBack whether all parts have to be held back until the document is complete
+     */
+    StreamingHtmlRenderer(ToHtmlSerializer serializer, Appendable out, boolean holdBack) {
+        this.serializer = serializer;
+        this.out = out;
+        this.holdBack = holdBack;
+    }
+
+    /**
+     * Adds the next part of the document and writes all parts that can no longer change.
+     */
+    void add(RootNode part) throws IOException {
+        serializer.addDefinitions(part);
+        pending.add(part);
+        while (!holdBack && !pending.isEmpty() && !hasUnresolvedReferences(pending.peek())) {
+            write(pending.poll());
+        }
+    }
+
+    /**
+     * Writes all remaining parts, the document is complete.
+     */
+    void finish() throws IOException {
+        while (!pending.isEmpty()) {
+            write(pending.poll());
+        }
+    }
+
+    private void write(RootNode part) throws IOException {
+        serializer.visitBlocks(part);
+        serializer.printer.flushTo(out);
+    }
+
+    private boolean hasUnresolvedReferences(Node node) {
+        if (node instanceof RefLinkNode || node instanceof RefImageNode) {
+            // the same key the serializer looks up
+            SuperNode referenceKey = node instanceof RefLinkNode ? ((RefLinkNode) node).referenceKey :
+                    ((RefImageNode) node).referenceKey;
+            String key = serializer.printChildrenToString(referenceKey != null ? referenceKey : (SuperNode) node);
+            if (!serializer.references.containsKey(serializer.normalize(key))) return true;
+        }
+        for (Node child : node.getChildren()) {
+            if (hasUnresolvedReferences(child)) return true;
+        }
+        return false;
+    }
+}
@@ -22,6 +22,7 @@ import org.parboiled.common.StringUtils;
 import org.pegdown.ast.*;
 import org.pegdown.plugins.ToHtmlSerializerPlugin;
 
+import java.io.IOException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -31,6 +32,7 @@ import java.util.TreeMap;
 import static org.parboiled.common.Preconditions.checkArgNotNull;
 
 public class ToHtmlSerializer implements Visitor {
+    public static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
 
     protected Printer printer = new Printer();
     protected final Map<String, ReferenceNode> references = new HashMap<String, ReferenceNode>();
@@ -44,6 +46,9 @@ public class ToHtmlSerializer implements Visitor {
 
     protected Map<String, VerbatimSerializer> verbatimSerializers;
 
+    private ResourceLimits resourceLimits = ResourceLimits.UNLIMITED;
+    private int rootDepth; // the number of RootNodes currently being visited
+
     public ToHtmlSerializer(LinkRenderer linkRenderer) {
         this(linkRenderer, Collections.<ToHtmlSerializerPlugin>emptyList());
     }
@@ -65,13 +70,80 @@ public class ToHtmlSerializer implements Visitor {
         this.plugins = plugins;
     }
 
+    /**
+     * Applies the output length limit of the given {@link ResourceLimits} to the HTML this serializer produces.
+     *
+     * @param resourceLimits the limits to apply
+     * @return this serializer
+     */
+    public ToHtmlSerializer withResourceLimits(ResourceLimits resourceLimits) {
+        this.resourceLimits = checkArgNotNull(resourceLimits, "resourceLimits");
+        printer.limitLength(resourceLimits);
+        return this;
+    }
+
     public String toHtml(RootNode astRoot) {
         checkArgNotNull(astRoot, "astRoot");
         astRoot.accept(this);
         return printer.getString();
     }
 
+    /**
+     * Serializes the given AST to the given Appendable (e.g. a Writer), buffering at most about
+     * {@link #DEFAULT_BUFFER_SIZE} chars of HTML at a time.
+     *
+     * @param astRoot the root of the AST to serialize
+     * @param out the Appendable to write the HTML to
+     * @throws IOException if writing to the Appendable fails
+     */
+    public void toHtml(RootNode astRoot, Appendable out) throws IOException {
+        toHtml(astRoot, out, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Serializes the given AST to the given Appendable (e.g. a Writer), buffering at most about the given number
+     * of chars of HTML at a time.
+     *
+     * @param astRoot the root of the AST to serialize
+     * @param out the Appendable to write the HTML to
+     * @param bufferSize the number of chars to buffer before writing them
+     * @throws IOException if writing to the Appendable fails
+     */
+    public void toHtml(RootNode astRoot, Appendable out, int bufferSize) throws IOException {
+        checkArgNotNull(astRoot, "astRoot");
+        printer = new Printer(out, bufferSize).limitLength(resourceLimits);
+        astRoot.accept(this);
+        printer.flush();
+    }
+
     public void visit(RootNode node) {
+        addDefinitions(node);
+        if (rootDepth > 0) {
+            visitChildren(node); // the root of an inner parse, e.g. of a list item
+            return;
+        }
+        rootDepth++;
+        try {
+            visitBlocks(node);
+        } finally {
+            rootDepth--;
+        }
+    }
+
+    // visits the top-level blocks of a document, a degraded document only contains those that fit completely into
+    // the output length limit
+    void visitBlocks(RootNode node) {
+        for (Node child : node.getChildren()) {
+            printer.markBlockStart();
+            child.accept(this);
+        }
+        printer.markBlockStart();
+    }
+
+    // uses a printer of its own, so it can also be called in between the blocks of a streamed document
+    protected void addDefinitions(RootNode node) {
+        Printer priorPrinter = printer;
+        printer = new Printer();
         for (ReferenceNode refNode : node.getReferences()) {
             visitChildren(refNode);
             references.put(normalize(printer.getString()), refNode);
@@ -86,7 +158,7 @@ public class ToHtmlSerializer implements Visitor {
             abbreviations.put(abbr, expansion);
             printer.clear();
         }
-        visitChildren(node);
+        printer = priorPrinter;
     }
 
     public void visit(AbbreviationNode node) {
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.parboiled.common.Preconditions.checkArgNotNull;
+import static org.parboiled.common.Preconditions.checkArgument;
+
+/**
+ * An Appendable encoding everything appended to it as UTF-8, either into a growable byte array or into a
+ * caller-supplied (possibly direct) ByteBuffer. Used as the target of
+ * {@link ToHtmlSerializer#toHtml(org.pegdown.ast.RootNode, Appendable)} it lets the HTML go to an OutputStream
+ * or a NIO channel without ever becoming a String.
+ * Malformed surrogates are encoded as '?', just like {@link String#getBytes(String)} does.
+ */
+public class Utf8ByteSink implements Appendable {
+    private final ByteBuffer buffer;
+    private byte[] bytes; // the output or, when writing to a ByteBuffer, the scratch space for one append
+    private int count;
+    private char highSurrogate; // a high surrogate appended last, still waiting for its low surrogate
+
+    /**
+     * Creates a sink writing to a growable byte array.
+     */
+    public Utf8ByteSink() {
+        this(1024);
+    }
+
+    /**
+     * Creates a sink writing to a growable byte array of the given initial capacity.
+     *
+     * @param initialCapacity the initial capacity in bytes
+     */
+    public Utf8ByteSink(int initialCapacity) {
+        checkArgument(initialCapacity >= 0, "initialCapacity must not be negative");
+        this.buffer = null;
+        this.bytes = new byte[initialCapacity];
+    }
+
+    /**
+     * Creates a sink writing to the given ByteBuffer, starting at its current position. Appending more than the
+     * buffer has room for throws a {@link java.nio.BufferOverflowException}.
+     *
+     * @param buffer the buffer to write to
+     */
+    public Utf8ByteSink(ByteBuffer buffer) {
+        checkArgNotNull(buffer, "buffer");
+        this.buffer = buffer;
+        this.bytes = new byte[256];
+    }
+
+    public Utf8ByteSink append(CharSequence csq) {
+        return append(csq, 0, csq.length());
+    }
+
+    public Utf8ByteSink append(CharSequence csq, int start, int end) {
+        if (end - start > bytes.length - count) grow(end - start);
+        int ix = start;
+        if (highSurrogate == 0) {
+            // fast path: the HTML markup and most of the text is plain ASCII
+            while (ix < end) {
+                char c = csq.charAt(ix);
+                if (c >= 0x80) break;
+                bytes[count++] = (byte) c;
+                ix++;
+            }
+        }
+        for (; ix < end; ix++) {
+            encode(csq.charAt(ix));
+        }
+        if (buffer != null) drain();
+        return this;
+    }
+
+    public Utf8ByteSink append(char c) {
+        if (bytes.length - count < 4) grow(4);
+        encode(c);
+        if (buffer != null) drain();
+        return this;
+    }
+
+    /**
+     * @return the number of bytes written to the byte array so far (always 0 when writing to a ByteBuffer)
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return a copy of the bytes written to the byte array so far
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(bytes, count);
+    }
+
+    /**
+     * @return a ByteBuffer wrapping (not copying) the bytes written to the byte array so far, ready to be read
+     */
+    public ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(bytes, 0, count);
+    }
+
+    /**
+     * Writes the bytes written to the byte array so far to the given OutputStream.
+     *
+     * @param out the stream to write to
+     * @throws IOException if the stream throws one
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, 0, count);
+    }
+
+    /**
+     * Encodes a high surrogate still waiting for its low surrogate as '?'. Call this after the last append if the
+     * appended chars might end with a malformed surrogate.
+     *
+     * @return this sink
+     */
+    public Utf8ByteSink finish() {
+        if (highSurrogate != 0) {
+            highSurrogate = 0;
+            append('?');
+        }
+        return this;
+    }
+
+    private void encode(char c) {
+        if (bytes.length - count < 4) grow(4);
+        if (highSurrogate != 0) {
+            char high = highSurrogate;
+            highSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                int codePoint = Character.toCodePoint(high, c);
+                bytes[count++] = (byte) (0xF0 | (codePoint >> 18));
+                bytes[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                bytes[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                bytes[count++] = (byte) (0x80 | (codePoint & 0x3F));
+                return;
+            }
+            bytes[count++] = '?';
+            if (bytes.length - count < 4) grow(4);
+        }
+        if (c < 0x80) {
+            bytes[count++] = (byte) c;
+        } else if (c < 0x800) {
+            bytes[count++] = (byte) (0xC0 | (c >> 6));
+            bytes[count++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            bytes[count++] = '?';
+        } else {
+            bytes[count++] = (byte) (0xE0 | (c >> 12));
+            bytes[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            bytes[count++] = (byte) (0x80 | (c & 0x3F));
+        }
+    }
+
+    private void grow(int needed) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, count + needed));
+    }
+
+    private void drain() {
+        buffer.put(bytes, 0, count);
+        count = 0;
+    }
+}
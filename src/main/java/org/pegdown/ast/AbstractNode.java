@@ -24,6 +24,17 @@ public abstract class AbstractNode implements Node {
         startIndex += delta;
         endIndex += delta;
     }
+
+    /**
+     * Shifts the indices of this node and of all nodes below it by the given delta, leaving nodes without a source
+     * range (i.e. with both indices 0) alone. The shift is applied to the children of a {@link SuperNode} only when
+     * they are first accessed, so shifting a large subtree costs next to nothing.
+     *
+     * @param delta the number of chars to shift the indices by
+     */
+    public void shiftTreeIndices(int delta) {
+        if (startIndex != 0 || endIndex != 0) shiftIndices(delta);
+    }
     
     public void mapIndices(int[] ixMap) {
         startIndex = ixMap[startIndex];
@@ -23,6 +23,7 @@ import java.util.List;
 
 public class SuperNode extends AbstractNode {
     private final List<Node> children = new ArrayList<Node>();
+    private volatile int pendingShift; // the shift of all indices below this node not yet applied to the children
 
     public SuperNode() {
     }
@@ -36,9 +37,28 @@ public class SuperNode extends AbstractNode {
     }
 
     public List<Node> getChildren() {
+        if (pendingShift != 0) applyPendingShift();
         return children;
     }
 
+    @Override
+    public void shiftTreeIndices(int delta) {
+        super.shiftTreeIndices(delta);
+        synchronized (this) {
+            pendingShift += delta;
+        }
+    }
+
+    private synchronized void applyPendingShift() {
+        int delta = pendingShift;
+        pendingShift = 0;
+        if (delta != 0) {
+            for (Node child : children) {
+                if (child instanceof AbstractNode) ((AbstractNode) child).shiftTreeIndices(delta);
+            }
+        }
+    }
+
     public void accept(Visitor visitor) {
         visitor.visit(this);
     }
@@ -33,17 +33,19 @@ import java.util.*;
 public class PegDownPlugins {
 
     private final Rule[] inlinePluginRules;
+    private final String[] inlinePluginTriggerChars;
     private final Rule[] blockPluginRules;
+    private final String[] blockPluginTriggerChars;
     private final Character[] specialChars;
     private final List<ToHtmlSerializerPlugin> serializerPlugins;
 
-    private PegDownPlugins(Rule[] inlinePluginRules, Rule[] blockPluginRules) {
-        this(inlinePluginRules, blockPluginRules, new Character[0], Collections.<ToHtmlSerializerPlugin>emptyList());
-    }
-
-    private PegDownPlugins(Rule[] inlinePluginRules, Rule[] blockPluginRules, Character[] specialChars, List<ToHtmlSerializerPlugin> serializerPlugins) {
+    private PegDownPlugins(Rule[] inlinePluginRules, String[] inlinePluginTriggerChars, Rule[] blockPluginRules,
+                           String[] blockPluginTriggerChars, Character[] specialChars,
+                           List<ToHtmlSerializerPlugin> serializerPlugins) {
         this.inlinePluginRules = inlinePluginRules;
+        this.inlinePluginTriggerChars = inlinePluginTriggerChars;
         this.blockPluginRules = blockPluginRules;
+        this.blockPluginTriggerChars = blockPluginTriggerChars;
         this.specialChars = specialChars;
         this.serializerPlugins = serializerPlugins;
     }
@@ -52,10 +54,25 @@ public class PegDownPlugins {
         return inlinePluginRules;
     }
 
+    /**
+     * @return the chars the inline plugin rule at the same index can start with, or null if it can start with any char
+     */
+    public String[] getInlinePluginTriggerChars() {
+        return inlinePluginTriggerChars;
+    }
+
     public Rule[] getBlockPluginRules() {
         return blockPluginRules;
     }
 
+    /**
+     * @return the chars the blocks matched by the block plugin rule at the same index can start with after up to three
+     *         spaces of indentation, or null if the rule can match any block
+     */
+    public String[] getBlockPluginTriggerChars() {
+        return blockPluginTriggerChars;
+    }
+
     public Character[] getSpecialChars() {
         return specialChars;
     }
@@ -72,8 +89,14 @@ public class PegDownPlugins {
      * Create a builder that is a copy of the existing plugins
      */
     public static Builder builder(PegDownPlugins like) {
-        return builder().withInlinePluginRules(like.getInlinePluginRules()).withBlockPluginRules(like.getBlockPluginRules()).
-        		withHtmlSerializer(like.serializerPlugins.toArray(new ToHtmlSerializerPlugin[0]));
+        Builder builder = builder();
+        for (int i = 0; i < like.inlinePluginRules.length; i++) {
+            builder.withInlinePluginRules(like.inlinePluginTriggerChars[i], like.inlinePluginRules[i]);
+        }
+        for (int i = 0; i < like.blockPluginRules.length; i++) {
+            builder.withBlockPluginRules(like.blockPluginTriggerChars[i], like.blockPluginRules[i]);
+        }
+        return builder.withHtmlSerializer(like.serializerPlugins.toArray(new ToHtmlSerializerPlugin[0]));
     }
 
     /**
@@ -83,7 +106,9 @@ public class PegDownPlugins {
 
     public static class Builder {
         private final List<Rule> inlinePluginRules = new ArrayList<Rule>();
+        private final List<String> inlinePluginTriggerChars = new ArrayList<String>();
         private final List<Rule> blockPluginRules = new ArrayList<Rule>();
+        private final List<String> blockPluginTriggerChars = new ArrayList<String>();
         private final Set<Character> specialChars = new HashSet<Character>();
         private final List<ToHtmlSerializerPlugin> serializerPlugins = new ArrayList<ToHtmlSerializerPlugin>();
 
@@ -91,12 +116,37 @@ public class PegDownPlugins {
         }
 
         public Builder withInlinePluginRules(Rule... inlinePlugins) {
+            return withInlinePluginRules(null, inlinePlugins);
+        }
+
+        /**
+         * Add inline plugin rules that are only tried at positions holding one of the given trigger chars.
+         * Chars that would otherwise be matched as plain text must also be registered with
+         * {@link #withSpecialChars(Character...)}.
+         *
+         * @param triggerChars the chars the rules can start with, or null if they can start with any char
+         * @param inlinePlugins the rules
+         */
+        public Builder withInlinePluginRules(String triggerChars, Rule... inlinePlugins) {
             this.inlinePluginRules.addAll(Arrays.asList(inlinePlugins));
+            for (Rule ignored : inlinePlugins) this.inlinePluginTriggerChars.add(triggerChars);
             return this;
         }
 
         public Builder withBlockPluginRules(Rule... blockPlugins) {
+            return withBlockPluginRules(null, blockPlugins);
+        }
+
+        /**
+         * Add block plugin rules that are only tried on blocks starting with one of the given trigger chars after up to
+         * three spaces of indentation.
+         *
+         * @param triggerChars the chars the blocks can start with, or null if the rules can match any block
+         * @param blockPlugins the rules
+         */
+        public Builder withBlockPluginRules(String triggerChars, Rule... blockPlugins) {
             this.blockPluginRules.addAll(Arrays.asList(blockPlugins));
+            for (Rule ignored : blockPlugins) this.blockPluginTriggerChars.add(triggerChars);
             return this;
         }
 
@@ -113,6 +163,7 @@ public class PegDownPlugins {
         /**
          * Add a plugin parser.  This should either implement {@link InlinePluginParser} or {@link BlockPluginParser},
          * or both.  The parser will be enhanced by parboiled before its rules are extracted and registered here.
+         * If it also implements {@link PluginTriggerChars} its rules are registered with the trigger chars it declares.
          *
          * @param pluginParser the plugin parser class.
          * @param arguments the arguments to pass to the constructor of that class.
@@ -124,17 +175,21 @@ public class PegDownPlugins {
                 throw new IllegalArgumentException("Parser plugin must implement a parser plugin interface to be useful");
             }
             BaseParser<Object> parser = Parboiled.createParser(pluginParser, arguments);
+            PluginTriggerChars triggerChars = parser instanceof PluginTriggerChars ? (PluginTriggerChars) parser : null;
             if (parser instanceof InlinePluginParser) {
-                withInlinePluginRules(((InlinePluginParser) parser).inlinePluginRules());
+                withInlinePluginRules(triggerChars != null ? triggerChars.inlinePluginTriggerChars() : null,
+                        ((InlinePluginParser) parser).inlinePluginRules());
             }
             if (parser instanceof BlockPluginParser) {
-                withBlockPluginRules(((BlockPluginParser) parser).blockPluginRules());
+                withBlockPluginRules(triggerChars != null ? triggerChars.blockPluginTriggerChars() : null,
+                        ((BlockPluginParser) parser).blockPluginRules());
             }
             return this;
         }
         
         public PegDownPlugins build() {
-            return new PegDownPlugins(inlinePluginRules.toArray(new Rule[0]), blockPluginRules.toArray(new Rule[0]),
+            return new PegDownPlugins(inlinePluginRules.toArray(new Rule[0]), inlinePluginTriggerChars.toArray(new String[0]),
+                    blockPluginRules.toArray(new Rule[0]), blockPluginTriggerChars.toArray(new String[0]),
                     specialChars.toArray(new Character[0]), Collections.unmodifiableList(serializerPlugins));
         }
     }
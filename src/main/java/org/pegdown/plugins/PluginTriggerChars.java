@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2010-2011 Mathias Doenitz
+ *
+ * Based on peg-markdown (C) 2008-2010 John MacFarlane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.pegdown.plugins;
+
+/**
+ * Optionally implemented by an {@link InlinePluginParser} or {@link BlockPluginParser} to declare the chars its rules
+ * can start with, so that pegdown only tries them where they could match.
+ *
+ * This interface is picked up by {@link PegDownPlugins.Builder#withPlugin(Class, Object...)}.
+ */
+public interface PluginTriggerChars {
+    /**
+     * @return the chars the inline plugin rules can start with, or null if they can start with any char
+     */
+    String inlinePluginTriggerChars();
+
+    /**
+     * @return the chars the blocks matched by the block plugin rules can start with after up to three spaces of
+     *         indentation, or null if they can match any block
+     */
+    String blockPluginTriggerChars();
+}
@@ -1,13 +1,13 @@
 package org.pegdown
 
-import java.io.{StringWriter, StringReader}
+import java.io.{File, StringWriter, StringReader}
 import org.specs2.matcher.MatchResult
 import org.specs2.mutable.Specification
 import org.w3c.tidy.Tidy
 import org.parboiled.common.FileUtils
 import org.parboiled.support.ToStringFormatter
 import org.parboiled.trees.GraphUtils
-import ast.Node
+import ast.{Node, RootNode}
 
 
 abstract class AbstractPegDownSpec extends Specification {
@@ -76,6 +76,24 @@ abstract class AbstractPegDownSpec extends Specification {
     normalize(GraphUtils.printTree(astRoot, new ToStringFormatter[Node]())) === normalize(expectedAst)
   }
 
+  /**
+   * All markdown test documents in the test resources, in a stable order.
+   */
+  lazy val markdownResources: Seq[File] = {
+    def markdownFiles(dir: File): Seq[File] = dir.listFiles.toSeq.sortBy(_.getName).flatMap { file =>
+      if (file.isDirectory) markdownFiles(file)
+      else if (file.getName.endsWith(".md") || file.getName.endsWith(".text")) Seq(file)
+      else Nil
+    }
+    markdownFiles(new File(getClass.getResource("/benchmark.text").toURI).getParentFile)
+  }
+
+  /**
+   * Prints the AST and the references and abbreviations collected by the parse, for comparing two parses.
+   */
+  def dump(root: RootNode) =
+    GraphUtils.printTree(root, new ToStringFormatter[Node]) + root.getReferences + root.getAbbreviations
+
   def tidy(html: String) = {
     val in = new StringReader(html)
     val out = new StringWriter
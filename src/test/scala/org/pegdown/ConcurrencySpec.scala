@@ -0,0 +1,134 @@
+package org.pegdown
+
+import java.util.concurrent.{Callable, ExecutionException, Executors, TimeUnit}
+import org.parboiled.common.FileUtils
+import org.pegdown.ast.RootNode
+import Extensions._
+
+
+class ConcurrencySpec extends AbstractPegDownSpec {
+
+  val markdown = FileUtils.readAllCharsFromResource("benchmark.text")
+
+  def inParallel[T](threads: Int, count: Int)(body: => T): Seq[T] = {
+    val executor = Executors.newFixedThreadPool(threads)
+    try {
+      val futures = (1 to count).map(_ => executor.submit(new Callable[T] { def call() = body }))
+      futures.map(_.get(60, TimeUnit.SECONDS))
+    } finally executor.shutdown()
+  }
+
+  "A shared PegDownProcessor" should {
+
+    "render the same HTML when used from several threads at once" in {
+      val processor = new PegDownProcessor(ALL, 10000)
+      val expected = processor.markdownToHtml(markdown)
+      inParallel(8, 32)(processor.markdownToHtml(markdown)).forall(_ == expected) must beTrue
+    }
+
+    "serialize concurrent calls on a custom parser it cannot replicate" in {
+      val processor = new PegDownProcessor(org.parboiled.Parboiled.createParser[CustomParser, AnyRef](classOf[CustomParser]))
+      val expected = processor.markdownToHtml(markdown)
+      inParallel(4, 8)(processor.markdownToHtml(markdown)).forall(_ == expected) must beTrue
+    }
+  }
+
+  "A batch conversion" should {
+
+    "deliver the results in the order of the sources" in {
+      val processor = new PegDownProcessor(ALL, 10000)
+      val sources = (1 to 20).map(i => if (i % 5 == 0) markdown else ("# Doc " + i).toCharArray)
+      val expected = sources.map(processor.markdownToHtml)
+      val executor = Executors.newFixedThreadPool(4)
+      try {
+        val futures = processor.markdownToHtmlAll(java.util.Arrays.asList(sources: _*), executor)
+        (0 until futures.size).map(futures.get(_).get(60, TimeUnit.SECONDS)) === expected
+      } finally executor.shutdown()
+    }
+
+    "fail only the entries that time out" in {
+      val processor = new PegDownProcessor(200L)
+      val pathological = ("how about a new method thats getObjectIdOrAdjustmentGroup? That w[a[[[[[[[[[[[[[[[[[y we're " +
+        "more explicit and still benefit callers from having to do the iff dance ]").toCharArray
+      val futures = processor.markdownToHtmlAll(java.util.Arrays.asList("*a*".toCharArray, pathological))
+      (futures.get(0).get === "<p><em>a</em></p>") and
+        (futures.get(1).get must throwA[ExecutionException].like { case e => e.getCause must beAnInstanceOf[ParsingTimeoutException] })
+    }
+  }
+
+  "An asynchronous conversion" should {
+
+    "stop the running parse when its future is cancelled" in {
+      val processor = new PegDownProcessor(60000L)
+      val executor = Executors.newSingleThreadExecutor()
+      try {
+        val future = processor.markdownToHtmlAsync(("w[a" + "[" * 40 + "y we're more explicit ]").toCharArray, executor)
+        Thread.sleep(100)
+        future.cancel(false)
+        // the single worker thread only becomes free again if the pathological parse was actually stopped
+        (future.isCancelled must beTrue) and
+          (processor.markdownToHtmlAsync("*a*".toCharArray, executor).get(10, TimeUnit.SECONDS) === "<p><em>a</em></p>")
+      } finally executor.shutdownNow()
+    }
+
+    "stop the parse of a cancelled session with a ParsingCancelledException" in {
+      def cancelled = { val session = new ParsingSession; session.cancel(); session }
+      val processor = new PegDownProcessor(ALL)
+      (processor.parseMarkdown("*a*".toCharArray, cancelled) must throwA[ParsingCancelledException]) and
+        (processor.parseMarkdown("*a*": CharSequence, cancelled) must throwA[ParsingCancelledException])
+    }
+
+    "stop the running parse when its thread is interrupted" in {
+      val processor = new PegDownProcessor(60000L)
+      val executor = Executors.newSingleThreadExecutor()
+      val future = executor.submit(new Callable[RootNode] {
+        def call() = processor.parseMarkdown(("w[a" + "[" * 40 + "y we're more explicit ]").toCharArray)
+      })
+      Thread.sleep(100)
+      executor.shutdownNow()
+      (executor.awaitTermination(10, TimeUnit.SECONDS) must beTrue) and
+        (future.get must throwA[ExecutionException].like { case e => e.getCause must beAnInstanceOf[ParsingCancelledException] })
+    }
+
+    "fail a synchronous conversion on an interrupted thread with a ParsingCancelledException" in {
+      Thread.currentThread.interrupt()
+      try new PegDownProcessor(ALL).markdownToHtml("hello *world*") must throwA[ParsingCancelledException]
+      finally Thread.interrupted()
+    }
+  }
+
+  "A PegDownProcessorPool" should {
+
+    "create processors lazily and never more than its maximum size" in {
+      val pool = new PegDownProcessorPool(ALL, 10000, plugins.PegDownPlugins.NONE, 1, 3)
+      val expected = new PegDownProcessor(ALL, 10000).markdownToHtml(markdown)
+      val results = inParallel(8, 24)(pool.markdownToHtml(markdown))
+      (results.forall(_ == expected) must beTrue) and
+        (pool.getSize must be_<=(3)) and
+        (pool.getPeakLeasedCount must be_<=(3)) and
+        (pool.getLeasedCount === 0) and
+        (pool.getAcquireCount === 24L)
+    }
+
+    "time out when saturated" in {
+      val pool = new PegDownProcessorPool(NONE, plugins.PegDownPlugins.NONE, 0, 1)
+      val leased = pool.acquire()
+      val result = pool.acquire(10, TimeUnit.MILLISECONDS)
+      pool.release(leased)
+      (result must beNull) and (pool.getTimeoutCount === 1L) and (pool.getWaitCount === 1L) and
+        (pool.acquire(10, TimeUnit.MILLISECONDS) must be(leased))
+    }
+
+    "reject the release of processors it has not leased" in {
+      val pool = new PegDownProcessorPool(NONE, plugins.PegDownPlugins.NONE, 0, 2)
+      val first = pool.acquire()
+      pool.acquire() // keeps a lease open
+      pool.release(first)
+      (pool.release(first) must throwA[IllegalArgumentException]) and
+        (pool.release(new PegDownProcessor(ALL)) must throwA[IllegalArgumentException]) and
+        (pool.getLeasedCount === 1) and (pool.getIdleCount === 1) and
+        (pool.acquire() must be(first))
+    }
+  }
+
+}
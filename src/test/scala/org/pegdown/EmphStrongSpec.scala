@@ -32,6 +32,12 @@ class EmphStrongSpec extends AbstractPegDownSpec {
       test("emph-strong-test/test_21")
       test("emph-strong-test/test_22")
     }
+
+    "pass all tests in the EmphStrong test suite with the delimiter run resolution" in {
+      implicit val processor = new PegDownProcessor((ALL & ~ANCHORLINKS) | DELIMITER_RUNS)
+
+      (1 to 22).map(i => test("emph-strong-test/test_" + i)).reduce(_ and _)
+    }
   }
 
 }
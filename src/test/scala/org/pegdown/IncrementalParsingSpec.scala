@@ -0,0 +1,70 @@
+package org.pegdown
+
+import scala.util.Random
+import org.parboiled.common.FileUtils
+import Extensions._
+
+
+class IncrementalParsingSpec extends AbstractPegDownSpec {
+
+  val insertions = Seq("", "x", "\n\n", "\n\nNew paragraph\n\n", "\n```\n", "<div>\n", "</div>\n\n", "\n: def\n",
+    "[id]: /url\n", " *emph", "<a title='\n\n")
+
+  def editAllRandomly(options: Int) = {
+    val processor = new PegDownProcessor(options, 10000)
+    val random = new Random(42)
+    markdownResources.flatMap { file =>
+      var markdown = new String(FileUtils.readAllChars(file))
+      // some test documents are pathological for some extension sets and time out in either case
+      var previous =
+        try Some(processor.parseMarkdown(markdown.toCharArray))
+        catch { case _: ParsingTimeoutException => None }
+      (1 to 5).flatMap { _ =>
+        previous.map { root =>
+          val start = random.nextInt(markdown.length + 1)
+          val removed = math.min(markdown.length - start, random.nextInt(40))
+          val inserted = insertions(random.nextInt(insertions.size))
+          markdown = markdown.substring(0, start) + inserted + markdown.substring(start + removed)
+          val incremental = processor.parseIncremental(root, markdown.toCharArray, start, removed, inserted.length)
+          previous = Some(incremental)
+          (file.getName, dump(incremental)) === ((file.getName, dump(processor.parseMarkdown(markdown.toCharArray))))
+        }
+      }
+    }
+  }
+
+  "Incremental parsing" should {
+
+    "produce the same AST as a complete parse without extensions" in {
+      editAllRandomly(NONE)
+    }
+
+    "produce the same AST as a complete parse with all extensions" in {
+      editAllRandomly(ALL)
+    }
+
+    "reuse the blocks the edit cannot have affected" in {
+      val processor = new PegDownProcessor(ALL)
+      val markdown = "First paragraph\n\nSecond paragraph\n\nThird paragraph\n\n[ref]: /url\n"
+      val previous = processor.parseMarkdown(markdown.toCharArray)
+      val (first, third) = (previous.getChildren.get(0), previous.getChildren.get(2))
+      val edited = markdown.replace("Second", "Changed")
+      val root = processor.parseIncremental(previous, edited.toCharArray, 17, 6, 7)
+      (root.getChildren.get(0) must be(first)) and (root.getChildren.get(2) must be(third)) and
+        (third.getStartIndex === edited.indexOf("Third")) and
+        (root.getReferences.get(0).getStartIndex === edited.indexOf("[ref]"))
+    }
+
+    "shift the indices of nested reference nodes along with their blocks" in {
+      val processor = new PegDownProcessor(ALL)
+      val markdown = "First paragraph\n\nSecond paragraph\n\nThird paragraph\n\n* item\n\n    > [ref]: /url\n"
+      val previous = processor.parseMarkdown(markdown.toCharArray)
+      val edited = markdown.replace("First", "Edited first")
+      val root = processor.parseIncremental(previous, edited.toCharArray, 0, 5, 12)
+      val reference = root.getReferences.get(0)
+      (reference.getStartIndex === edited.indexOf("[ref]")) and
+        (dump(root) === dump(processor.parseMarkdown(edited.toCharArray)))
+    }
+  }
+
+}
@@ -0,0 +1,81 @@
+package org.pegdown
+
+import java.util.concurrent.Executors
+import org.parboiled.common.FileUtils
+import ast.RootNode
+import Extensions._
+
+
+class ParallelParsingSpec extends AbstractPegDownSpec {
+
+  // renders email addresses without the random obfuscation, so that the HTML of two parses can be compared
+  val linkRenderer = new LinkRenderer {
+    override def render(node: ast.MailLinkNode) = new LinkRenderer.Rendering("mailto:" + node.getText, node.getText)
+  }
+
+  def toHtml(root: RootNode) = new ToHtmlSerializer(linkRenderer).toHtml(root)
+
+  def parseAllBothWays(options: Int, pathological: Set[String]) = {
+    val processor = new PegDownProcessor(options, 10000)
+    val executor = Executors.newFixedThreadPool(4)
+    try {
+      val results = markdownResources.map { file =>
+        val markdown = FileUtils.readAllChars(file)
+        val sequential =
+          try Some(processor.parseMarkdown(markdown))
+          catch { case _: ParsingTimeoutException => None }
+        (file.getName, sequential.map { sequential =>
+          val parallel = processor.parseMarkdownInParallel(markdown, 1, executor)
+          (file.getName, dump(parallel), toHtml(parallel)) === ((file.getName, dump(sequential), toHtml(sequential)))
+        })
+      }
+      // only the documents known to be pathological for the extension set time out in the sequential parse
+      (results.collect { case (name, None) => name }.toSet === pathological) and
+        results.flatMap(_._2).reduce(_ and _)
+    } finally executor.shutdown()
+  }
+
+  "Parallel parsing" should {
+
+    "produce the same AST as a sequential parse without extensions" in {
+      parseAllBothWays(NONE, Set.empty)
+    }
+
+    "produce the same AST as a sequential parse with all extensions" in {
+      parseAllBothWays(ALL, Set("crazy-table.md"))
+    }
+
+    "count the checkpoints of all chunks against the budget of the document" in {
+      val markdown = ("Some *text* here\n\n" * 200).toCharArray
+      def processor(maxCheckpoints: Long) =
+        new PegDownProcessor(NONE, ParsingBudget.checkpoints(maxCheckpoints), plugins.PegDownPlugins.NONE)
+      val executor = Executors.newFixedThreadPool(4)
+      try {
+        (processor(1000).parseMarkdown(markdown) must throwA[ParsingBudgetExceededException]) and
+          (processor(1000).parseMarkdownInParallel(markdown, 100, executor) must throwA[ParsingBudgetExceededException]) and
+          (dump(processor(2000).parseMarkdownInParallel(markdown, 100, executor)) ===
+            dump(processor(2000).parseMarkdown(markdown)))
+      } finally executor.shutdown()
+    }
+
+    "return null from markdownToHtmlInParallel for a document exceeding the parsing timeout" in {
+      val regular = "Some *text* here\n\n" * 8000
+      val processor = new PegDownProcessor(1000L)
+      (processor.markdownToHtmlInParallel((regular + "w[a" + "[" * 40 + "y we're more explicit ]\n\n" + regular)
+        .toCharArray) must beNull) and
+        (processor.markdownToHtmlInParallel(regular.toCharArray) === processor.markdownToHtml(regular))
+    }
+
+    "split a large document at top-level block boundaries" in {
+      val source = new PegDownProcessor().prepareSource(FileUtils.readAllCharsFromResource("benchmark.text"))
+      BlockBoundaryScanner.findSplitPoints(source, ALL).length must be_>(10)
+    }
+
+    "not split within fenced code or HTML blocks" in {
+      val source = new PegDownProcessor().prepareSource(
+        "Intro\n\n```\ncode\n\nInFence\n```\n\n<div>\n\nInDiv\n\n</div>\n\n<a title=\"\n\nInTag\">x</a>\n\nAfter".toCharArray)
+      BlockBoundaryScanner.findSplitPoints(source, ALL).map(ix => new String(source, ix, 5)).toSeq === Seq("After")
+    }
+  }
+
+}
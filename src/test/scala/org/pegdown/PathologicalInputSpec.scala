@@ -1,10 +1,33 @@
 package org.pegdown
 
+import org.pegdown.plugins.PegDownPlugins
 import Extensions._
 
 
 class PathologicalInputSpec extends AbstractPegDownSpec {
 
+  val unbalancedBrackets =
+    "how about a new method thats getObjectIdOrAdjustmentGroup? That w[a[[[[[[[[[[[[[[[[[y we're more explicit" +
+      " and still benefit callers from having to do the iff dance"
+  val lateClosedBrackets = unbalancedBrackets + " ]"
+
+  val deepQuote = ">" * 1000 + " deep"
+  val manyNodes = "*a* " * 1000
+  val blocks = "*a*\n\n* item *b*\n* item *c*\n\n" + manyNodes
+  val blocksWithinOutputLimit =
+    "<p><em>a</em></p>\n<ul>\n  <li>item <em>b</em></li>\n  <li>item <em>c</em></li>\n</ul>"
+  val depthLimit = ResourceLimits.UNLIMITED.withMaxNestingDepth(20)
+  val nodeLimit = ResourceLimits.UNLIMITED.withMaxNodeCount(100)
+  val outputLimit = ResourceLimits.UNLIMITED.withMaxOutputLength(100)
+
+  def limitedProcessor(limits: ResourceLimits, options: Int = NONE) =
+    new PegDownProcessor(options, ParsingBudget.timeout(10000), limits, PegDownPlugins.NONE)
+
+  // the limit the given markdown exceeds or null
+  def limitOf(options: Int, limits: ResourceLimits, markdown: String) =
+    try { limitedProcessor(limits, options).markdownToHtml(markdown); null }
+    catch { case e: ResourceLimitExceededException => e.getLimit }
+
   "The PegDownProcessor" should {
 
     "properly parse pathological input example 1" in {
@@ -28,13 +51,82 @@ class PathologicalInputSpec extends AbstractPegDownSpec {
       } mustNotEqual null
     }
 
+    "properly parse pathological input example 2 with the delimiter run resolution" in {
+      val markdown = "***a*** ***b*** ***c*** ~~*d*~~ _e_ __f__ " * 2000
+      val html = new PegDownProcessor(SMARTYPANTS | AUTOLINKS | STRIKETHROUGH | DELIMITER_RUNS, 1000).markdownToHtml(markdown)
+      html must startWith("<p><strong><em>a</em></strong> <strong><em>b</em></strong> <strong><em>c</em></strong> " +
+        "<del><em>d</em></del> <em>e</em> <strong>f</strong> <strong><em>a</em></strong>")
+    }
+
     "properly parse pathological input example 3" in {
-      new PegDownProcessor(200l).markdownToHtml {
-        "how about a new method thats getObjectIdOrAdjustmentGroup? That w[a[[[[[[[[[[[[[[[[[y we're more explicit" +
-          " and still benefit callers from having to do the iff dance"
-      } must throwA[org.parboiled.errors.ParserRuntimeException]
+      (new PegDownProcessor(200l).markdownToHtml(unbalancedBrackets) mustNotEqual null) and
+        (new PegDownProcessor(200l).markdownToHtml(unbalancedBrackets.toCharArray) mustNotEqual null) and
+        (new PegDownProcessor(200l).markdownToHtml(lateClosedBrackets) must beNull)
+    }
+
+    "stop parsing pathological input when its parsing budget is used up" in {
+      val processor = new PegDownProcessor(NONE, ParsingBudget.checkpoints(10000), PegDownPlugins.NONE)
+      (processor.parseMarkdown(lateClosedBrackets) must throwA[ParsingBudgetExceededException]) and
+        (processor.markdownToHtml(lateClosedBrackets) must beNull) and
+        (processor.markdownToHtml("A *regular* paragraph") === "<p>A <em>regular</em> paragraph</p>")
+    }
+
+    "parse pathological input example 3 with packrat memoization" in {
+      def processor(maxMemoEntries: Int) = new PegDownProcessor(QUOTES,
+        ParsingBudget.timeout(2000).withMaxMemoEntries(maxMemoEntries), PegDownPlugins.NONE)
+      val markdown = "A [link][ref], an ![image](/img.png \"title\"), a \"[quoted] *text*\" and\n\n" +
+        "<div><div>some</div> html</div>\n\n[ref]: /url\n"
+      val expected = new PegDownProcessor(QUOTES).markdownToHtml(markdown)
+
+      (processor(100000).markdownToHtml(lateClosedBrackets) mustNotEqual null) and
+        (processor(100000).markdownToHtml(markdown) === expected) and
+        (processor(2).markdownToHtml(markdown) === expected)
+    }
+
+    "fail a document nested deeper than the nesting limit" in {
+      limitOf(NONE, depthLimit, deepQuote) === ResourceLimits.Limit.NESTING_DEPTH
     }
 
+    "keep the content nested deeper than the nesting limit as plain text when degrading" in {
+      val degraded = limitedProcessor(depthLimit.withPolicy(ResourceLimits.Policy.DEGRADE)).markdownToHtml(deepQuote)
+      (degraded.split("<blockquote>").length - 1 === 21) and
+        (degraded must contain("<p>" + ">" * 979 + " deep</p>"))
+    }
+
+    "fail a document with more nodes than the node limit" in {
+      limitOf(NONE, nodeLimit, manyNodes) === ResourceLimits.Limit.NODE_COUNT
+    }
+
+    "drop the nodes beyond the node limit when degrading" in {
+      limitedProcessor(nodeLimit.withPolicy(ResourceLimits.Policy.DEGRADE)).markdownToHtml(manyNodes).length must
+        be_<(1000)
+    }
+
+    "count only the nodes of the final AST against the node limit" in {
+      // the parser builds and discards further nodes while backtracking over the quote
+      val backtracking = "\"a *b* c *d* e *f* g\n\nnext"
+      (limitOf(ALL, ResourceLimits.UNLIMITED.withMaxNodeCount(16), backtracking) === null) and
+        (limitOf(ALL, ResourceLimits.UNLIMITED.withMaxNodeCount(15), backtracking) === ResourceLimits.Limit.NODE_COUNT)
+    }
+
+    "count the nodes of list items and block quotes as their inner parses take them" in {
+      val nested = "* a *b*\n* c\n    > q *d* \"e\"\n    > * x\n\n1. one\n2. two *t*\n\npara"
+      (limitOf(ALL, ResourceLimits.UNLIMITED.withMaxNodeCount(38), nested) === null) and
+        (limitOf(ALL, ResourceLimits.UNLIMITED.withMaxNodeCount(37), nested) === ResourceLimits.Limit.NODE_COUNT)
+    }
+
+    "fail a document with more HTML than the output limit" in {
+      limitOf(NONE, outputLimit, manyNodes) === ResourceLimits.Limit.OUTPUT_LENGTH
+    }
+
+    "end the HTML with the last top-level block fitting into the output limit when degrading" in {
+      val degraded = outputLimit.withPolicy(ResourceLimits.Policy.DEGRADE)
+      val writer = new java.io.StringWriter
+      new ToHtmlSerializer(new LinkRenderer).withResourceLimits(degraded)
+        .toHtml(limitedProcessor(ResourceLimits.UNLIMITED).parseMarkdown(blocks.toCharArray), writer, 8)
+      (limitedProcessor(degraded).markdownToHtml(blocks) === blocksWithinOutputLimit) and
+        (writer.toString === blocksWithinOutputLimit)
+    }
   }
 
 }
@@ -0,0 +1,33 @@
+package org.pegdown
+
+import org.specs2.mutable.Specification
+import plugins.PegDownPlugins
+import Extensions._
+
+
+class PegDownProcessorRegistrySpec extends Specification {
+
+  "A PegDownProcessorRegistry" should {
+
+    "reuse the processor of a known options/plugins combination" in {
+      val registry = new PegDownProcessorRegistry(4)
+      val processor = registry.get(SMARTYPANTS)
+      (registry.get(SMARTYPANTS) must be(processor)) and
+        (registry.get(SMARTYPANTS, PegDownPlugins.builder().build()) must not(be(processor))) and
+        (registry.getHitCount === 1L) and (registry.getMissCount === 2L) and
+        (registry.markdownToHtml("\"Hi\"".toCharArray, SMARTYPANTS) === "<p>&ldquo;Hi&rdquo;</p>")
+    }
+
+    "evict the least recently used processor when full" in {
+      val registry = new PegDownProcessorRegistry(2)
+      val none = registry.get(NONE)
+      registry.get(TABLES)
+      registry.get(NONE)
+      registry.get(HARDWRAPS) // evicts TABLES
+      (registry.getSize === 2) and (registry.getEvictionCount === 1L) and
+        (registry.get(NONE) must be(none)) and (registry.getMissCount === 3L) and
+        { registry.get(TABLES); registry.getMissCount === 4L }
+    }
+  }
+
+}
@@ -1,9 +1,9 @@
 package org.pegdown
 
 import ast.{Visitor, Node}
-import org.parboiled.Parboiled
+import org.parboiled.{Action, Context, Parboiled}
 import Extensions._
-import org.pegdown.ast.VerbatimNode
+import org.pegdown.ast.{SimpleNode, TextNode, VerbatimNode}
 import org.parboiled.common.FileUtils
 import java.util.Collections
 import scala.collection.immutable.HashMap
@@ -139,12 +139,129 @@ class PegDownSpec extends AbstractPegDownSpec {
 
       testWithSerializer("pegdown/Plugins")
     }
+
+    "allow custom plugins with trigger chars" in {
+      import scala.collection.JavaConversions._
+      val pluginParser = Parboiled.createParser[PluginParser, AnyRef](classOf[PluginParser])
+      implicit val processor = new PegDownProcessor(Parboiled.createParser[Parser, AnyRef](classOf[Parser],
+        new java.lang.Integer(ALL), new java.lang.Long(1000), Parser.DefaultParseRunnerProvider,
+        PegDownPlugins.builder()
+          .withInlinePluginRules("%", pluginParser.InlinePlugin())
+          .withBlockPluginRules("%", pluginParser.BlockPlugin())
+          .build()))
+      implicit val htmlSerializer = new ToHtmlSerializer(new LinkRenderer, List(new ToHtmlSerializerPlugin {
+        def visit(node: Node, visitor: Visitor, printer: Printer) = node match {
+          case blockPlugin: BlockPluginNode =>
+            printer.print("<div class=\"blockplugin\">").print(blockPlugin.getText).print("</div>")
+            true
+          case inlinePlugin: InlinePluginNode =>
+            printer.print("<span class=\"inlineplugin\">").print(inlinePlugin.getText).print("</span>")
+            true
+          case _ => false
+        }
+      }))
+
+      testWithSerializer("pegdown/Plugins")
+    }
+
+    "try the overridden block rules of a parser subclass on every line" in {
+      val processor = new PegDownProcessor(Parboiled.createParser[EqualsRuleParser, AnyRef](classOf[EqualsRuleParser]))
+      processor.markdownToHtml("para\n\n===\n\nnext\n") === "<p>para</p>\n<hr/>\n<p>next</p>"
+    }
+
+    "try the overridden inline rules of a parser subclass at every char" in {
+      val processor = new PegDownProcessor(Parboiled.createParser[CopyrightParser, AnyRef](classOf[CopyrightParser]))
+      processor.markdownToHtml("Copyright (c) 2024") === "<p>Copyright \u00a9 2024</p>"
+    }
+
+    "honor the char rules of a parser subclass in plain text" in {
+      def processor(parserClass: Class[_ <: Parser]) = new PegDownProcessor(Parboiled.createParser[Parser, AnyRef](
+        parserClass.asInstanceOf[Class[Parser]]))
+      Seq(classOf[PercentSignParser], classOf[PercentSignCharsParser]).map { parserClass =>
+        dump(processor(parserClass).parseMarkdown("50% off".toCharArray)) must contain("SpecialTextNode [2-3] '%'")
+      }
+    }
+
+    "write the same HTML to an Appendable in chunks" in {
+      val processor = new PegDownProcessor(ALL & ~ABBREVIATIONS)
+      val markdown = FileUtils.readAllCharsFromResource("MarkdownTest103/Markdown Documentation - Basics.md")
+      var writes = 0
+      val writer = new java.io.StringWriter {
+        override def append(csq: CharSequence, start: Int, end: Int) = { writes += 1; super.append(csq, start, end) }
+      }
+      new ToHtmlSerializer(new LinkRenderer).toHtml(processor.parseMarkdown(markdown), writer, 256)
+      (writer.toString === processor.markdownToHtml(markdown)) and (writes must be_>(10))
+    }
+
+    "write the HTML as UTF-8 bytes" in {
+      val processor = new PegDownProcessor(ALL)
+      val markdown = "# Überschrift\n\nText with *ümlauts*, \u20ac signs and \ud83d\ude00 emoji.\n\n" * 20
+      val expected = processor.markdownToHtml(markdown).getBytes("UTF-8").toSeq
+      val sink = new Utf8ByteSink(16)
+      new ToHtmlSerializer(new LinkRenderer).toHtml(processor.parseMarkdown(markdown.toCharArray), sink, 100)
+      val buffer = java.nio.ByteBuffer.allocateDirect(expected.size)
+      new ToHtmlSerializer(new LinkRenderer).toHtml(processor.parseMarkdown(markdown.toCharArray), new Utf8ByteSink(buffer), 7)
+      buffer.flip()
+      val direct = new Array[Byte](buffer.remaining)
+      buffer.get(direct)
+      (sink.toByteArray.toSeq === expected) and (direct.toSeq === expected)
+    }
+
+    "parse CharSequences and char[] slices without copying them" in {
+      val processor = new PegDownProcessor(ALL)
+      Seq("benchmark.text", "MarkdownTest103/Markdown Documentation - Syntax.md", "pegdown/Tables.md").map { name =>
+        val markdown = FileUtils.readAllCharsFromResource(name)
+        val expected = dump(processor.parseMarkdown(markdown))
+        val slice = java.nio.CharBuffer.wrap(("xyz" + new String(markdown) + "\n\n# Header\n").toCharArray, 3, markdown.length)
+        (dump(processor.parseMarkdown(new String(markdown): CharSequence)) === expected) and
+          (dump(processor.parseMarkdown(slice)) === expected) and
+          (dump(processor.parseMarkdown(new java.lang.StringBuilder().append(markdown))) === expected)
+      }
+    }
+
+    "render memory-mapped files" in {
+      val processor = new PegDownProcessor(ALL & ~ABBREVIATIONS)
+      val (in, out) = (java.io.File.createTempFile("pegdown", ".md"), java.io.File.createTempFile("pegdown", ".html"))
+      try {
+        Seq(("# Plain *ASCII*\n\ntext", "UTF-8"), ("# Ümlauts and \u20ac\n\n> quoted", "UTF-8"),
+          ("# Ümlauts\n\ntext", "ISO-8859-1"), ("# Ümlauts\n\ntext", "UTF-16")).map { case (markdown, charsetName) =>
+          val charset = java.nio.charset.Charset.forName(charsetName)
+          FileUtils.writeAllText(markdown, in, charset)
+          processor.renderFile(in, out, charset)
+          FileUtils.readAllText(out, charset) === processor.markdownToHtml(markdown)
+        }
+      } finally {
+        in.delete()
+        out.delete()
+      }
+    }
   }
 
 }
 
 class CustomParser extends Parser(ALL, 1000, Parser.DefaultParseRunnerProvider)
 
+class EqualsRuleParser extends Parser(ALL, 1000, Parser.DefaultParseRunnerProvider) {
+  override def HorizontalRule() = NodeSequence(NonindentSpace(), "===", Sp(), Newline(), OneOrMore(BlankLine()),
+    new Action[AnyRef] {
+      def run(context: Context[AnyRef]) = { context.getValueStack.push(new SimpleNode(SimpleNode.Type.HRule)); true }
+    })
+}
+
+class CopyrightParser extends Parser(ALL, 1000, Parser.DefaultParseRunnerProvider) {
+  override def Entity() = NodeSequence("(c)", new Action[AnyRef] {
+    def run(context: Context[AnyRef]) = { context.getValueStack.push(new TextNode("\u00a9")); true }
+  })
+}
+
+class PercentSignParser extends Parser(ALL, 1000, Parser.DefaultParseRunnerProvider) {
+  override def SpecialChar() = AnyOf(specialChars + "%")
+}
+
+class PercentSignCharsParser extends Parser(ALL, 1000, Parser.DefaultParseRunnerProvider) {
+  override protected def specialChars = super.specialChars + "%"
+}
+
 class CustomVerbatimSerializer extends VerbatimSerializer {
   def serialize(node: VerbatimNode, printer: Printer) {
     printer.print("<pre>")
@@ -0,0 +1,68 @@
+package org.pegdown
+
+import java.io.StringReader
+import org.parboiled.common.FileUtils
+import Extensions._
+
+
+class StreamingSpec extends AbstractPegDownSpec {
+
+  val benchmark = new String(FileUtils.readAllCharsFromResource("benchmark.text"))
+  val document = (1 to 30).map(_ => benchmark).mkString("\n\n")
+
+  // records the amount of HTML written whenever the processor reads more input
+  class RecordingReader(source: String, out: java.lang.StringBuilder) extends StringReader(source) {
+    var writtenAtRead = List.empty[Int]
+    override def read(buffer: Array[Char], offset: Int, length: Int) = {
+      writtenAtRead ::= out.length
+      super.read(buffer, offset, math.min(length, 1000))
+    }
+  }
+
+  def stream(processor: PegDownProcessor, markdown: String) = {
+    val out = new java.lang.StringBuilder
+    processor.markdownToHtml(new StringReader(markdown) {
+      override def read(buffer: Array[Char], offset: Int, length: Int) =
+        super.read(buffer, offset, math.min(length, 777))
+    }, out)
+    out.toString
+  }
+
+  "Streaming conversion" should {
+
+    "render the same HTML as a conversion of the complete source" in {
+      val processor = new PegDownProcessor(ALL & ~ABBREVIATIONS)
+      val markdown = new String(FileUtils.readAllCharsFromResource("MarkdownTest103/Markdown Documentation - Basics.md"))
+      (stream(processor, document) === processor.markdownToHtml(document)) and
+        (stream(processor, markdown * 10) === processor.markdownToHtml(markdown * 10)) and
+        (stream(new PegDownProcessor(ALL), document) === processor.markdownToHtml(document))
+    }
+
+    "write the HTML of completed blocks before the input ends" in {
+      val out = new java.lang.StringBuilder
+      val reader = new RecordingReader(document, out)
+      new PegDownProcessor().markdownToHtml(reader, out)
+      reader.writtenAtRead.tail.head must be_>(0)
+    }
+
+    "not count the time spent waiting for the input against the parsing timeout" in {
+      val markdown = "Paragraph text\n\n" * 1000
+      val out = new java.lang.StringBuilder
+      new PegDownProcessor(300L).markdownToHtml(new StringReader(markdown) {
+        override def read(buffer: Array[Char], offset: Int, length: Int) = {
+          Thread.sleep(60)
+          super.read(buffer, offset, math.min(length, 1600))
+        }
+      }, out)
+      out.toString === new PegDownProcessor().markdownToHtml(markdown)
+    }
+
+    "hold back blocks with references defined later on" in {
+      val out = new java.lang.StringBuilder
+      val reader = new RecordingReader("See [the docs][docs].\n\n" + document + "\n\n[docs]: /docs\n", out)
+      new PegDownProcessor().markdownToHtml(reader, out)
+      (reader.writtenAtRead.tail.head === 0) and (out.toString must startWith("<p>See <a href=\"/docs\">the docs</a>.</p>"))
+    }
+  }
+
+}